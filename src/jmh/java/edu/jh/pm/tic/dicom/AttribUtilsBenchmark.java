@@ -0,0 +1,94 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.mule.api.MuleMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query keys in, result maps out
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttribUtilsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Keys {
+        @Param({ "4", "32", "256" })
+        public int size;
+        MuleMessage mapMessage;
+        MuleMessage jsonMessage;
+
+        @Setup
+        public void setup() {
+            mapMessage = SyntheticData.message(SyntheticData.queryMap(size));
+            jsonMessage = SyntheticData.message(SyntheticData.queryJson(size));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Flat {
+        @Param({ "16", "128", "1024" })
+        public int size;
+        Attributes data;
+
+        @Setup
+        public void setup() {
+            data = SyntheticData.flatDataset(size);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Nested {
+        @Param({ "2", "4", "6" })
+        public int depth;
+        Attributes data;
+
+        @Setup
+        public void setup() {
+            data = SyntheticData.structuredReport(depth, 3);
+        }
+    }
+
+    @Benchmark
+    public Attributes payloadToKeysMap(Keys keys) throws IOException {
+        return AttribUtils.payloadToKeys(keys.mapMessage);
+    }
+
+    @Benchmark
+    public Attributes payloadToKeysJson(Keys keys) throws IOException {
+        return AttribUtils.payloadToKeys(keys.jsonMessage);
+    }
+
+    @Benchmark
+    public Map<String,Object> attributesToMapFlat(Flat flat) {
+        return AttribUtils.attributesToMap(flat.data);
+    }
+
+    @Benchmark
+    public Map<String,Object> attributesToMapNested(Nested nested) {
+        return AttribUtils.attributesToMap(nested.data);
+    }
+}
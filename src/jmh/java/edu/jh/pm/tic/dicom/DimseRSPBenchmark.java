@@ -0,0 +1,102 @@
+package edu.jh.pm.tic.dicom;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.Commands;
+import org.dcm4che3.net.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Handling DIMSE responses the way a C-FIND or retrieve receives them, without a network
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DimseRSPBenchmark {
+    private static final int RESPONSES = 100;
+    private static final int[] STATUSES = { Status.Success, Status.Pending, Status.Cancel,
+            Status.OneOrMoreFailures, Status.UnableToProcess, 0xC123, 0xA701 };
+    @Param({ "16", "128" })
+    public int resultSize;
+    private Attributes findPending;
+    private Attributes findResult;
+    private Attributes retrievePending;
+    private Attributes retrieveFinal;
+
+    @Setup
+    public void setup() {
+        findPending = Commands.mkCFindRSP(Commands.mkCFindRQ(1, UID.StudyRootQueryRetrieveInformationModelFind, 0), Status.Pending);
+        findResult = SyntheticData.flatDataset(resultSize);
+        retrievePending = Commands.mkCGetRSP(Commands.mkCGetRQ(1, UID.StudyRootQueryRetrieveInformationModelGet, 0), Status.Pending);
+        setSuboperations(retrievePending, 1, 0, 0, RESPONSES - 1);
+        retrieveFinal = Commands.mkCGetRSP(Commands.mkCGetRQ(1, UID.StudyRootQueryRetrieveInformationModelGet, 0), Status.Success);
+        setSuboperations(retrieveFinal, RESPONSES, 0, 0, 0);
+    }
+
+    private static void setSuboperations(Attributes cmd, int completed, int failed, int warning, int remaining) {
+        cmd.setInt(Tag.NumberOfCompletedSuboperations, VR.US, completed);
+        cmd.setInt(Tag.NumberOfFailedSuboperations, VR.US, failed);
+        cmd.setInt(Tag.NumberOfWarningSuboperations, VR.US, warning);
+        cmd.setInt(Tag.NumberOfRemainingSuboperations, VR.US, remaining);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RESPONSES)
+    public MuleDimseRSPHandler find() {
+        MuleDimseRSPHandler handler = new MuleDimseRSPHandler(1);
+        for (int i = 1; i < RESPONSES; i++) handler.onDimseRSP(null, findPending, findResult);
+        handler.onDimseRSP(null, Commands.mkCFindRSP(Commands.mkCFindRQ(1, UID.StudyRootQueryRetrieveInformationModelFind, 0), Status.Success), null);
+        return handler;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RESPONSES)
+    public MuleDimseRSPHandler retrieve() {
+        MuleDimseRSPHandler handler = new MuleDimseRSPHandler(1);
+        for (int i = 1; i < RESPONSES; i++) handler.onDimseRSP(null, retrievePending, null);
+        handler.onDimseRSP(null, retrieveFinal, null);
+        return handler;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RESPONSES)
+    public MuleDimseRSPHandler retrieveProgress() {
+        int[] completed = new int[1];
+        MuleDimseRSPHandler handler = new RetrieveRSPHandler(1, (msgId, status, done, remaining, failed, warning) -> completed[0] = done, 0);
+        for (int i = 1; i < RESPONSES; i++) handler.onDimseRSP(null, retrievePending, null);
+        handler.onDimseRSP(null, retrieveFinal, null);
+        return handler;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(7)
+    public int getStatusText() {
+        int length = 0;
+        for (int status : STATUSES) length += MuleDimseRSPHandler.getStatusText(status).length();
+        return length;
+    }
+}
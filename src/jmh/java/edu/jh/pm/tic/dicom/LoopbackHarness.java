@@ -0,0 +1,392 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomEncodingOptions;
+import org.dcm4che3.net.Connection;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mule.api.callback.SourceCallback;
+
+import edu.jh.pm.tic.dicom.config.ConnectorConfig;
+import edu.jh.pm.tic.dicom.config.SCUConfig;
+import edu.jh.pm.tic.dicom.models.Durability;
+import edu.jh.pm.tic.dicom.models.InformationModel;
+import edu.jh.pm.tic.dicom.models.RetrieveLevel;
+import edu.jh.pm.tic.dicom.models.TransferSyntax;
+import edu.jh.pm.tic.dicom.store.MuleFileStore;
+
+/**
+ * End-to-end throughput over localhost. Store runs start a MuleStoreSCP and drive it with concurrent
+ * MuleStoreSCU senders, or MuleBatchStoreSCU when more than one operation may be outstanding. Find and
+ * Get runs point MuleSCU at a dcm4che stand-in that serves a synthetic study.
+ *
+ * Every combination of the comma separated system properties loopback.pduLengths, loopback.bufferSizes,
+ * loopback.maxOpsInvoked, loopback.pixelBytes and loopback.senders is run, sending loopback.instances
+ * instances per sender. Store latency is from sending an instance until the Store SCP's flow has it;
+ * Find and Get latency is one whole query or retrieve.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public final class LoopbackHarness {
+    private static final String AET = "LOOPBACK";
+
+    private LoopbackHarness() { }
+
+    public static void main(String[] args) throws Exception {
+        int[] pduLengths = ints("loopback.pduLengths", "16378,131072");
+        int[] bufferSizes = ints("loopback.bufferSizes", "0,1048576");
+        int[] maxOpsInvoked = ints("loopback.maxOpsInvoked", "1,16");
+        int[] pixelBytes = ints("loopback.pixelBytes", "65536,1048576");
+        int[] senders = ints("loopback.senders", "1,4");
+        int instances = Integer.getInteger("loopback.instances", 200);
+        int retrieves = Integer.getInteger("loopback.retrieves", 10);
+        Path result = Paths.get(System.getProperty("loopback.result", "target/loopback.json"));
+
+        JSONArray runs = new JSONArray();
+        System.out.println(Stats.HEADER);
+        for (int pdu : pduLengths) {
+            for (int buffer : bufferSizes) {
+                for (int size : pixelBytes) {
+                    for (int ops : maxOpsInvoked) {
+                        for (int n : senders) {
+                            runs.put(report(store(pdu, buffer, ops, size, n, instances)));
+                        }
+                    }
+                    runs.put(report(find(pdu, buffer, instances, retrieves)));
+                    runs.put(report(get(pdu, buffer, size, instances, retrieves)));
+                }
+            }
+        }
+        if (result.getParent() != null) Files.createDirectories(result.getParent());
+        try (Writer out = Files.newBufferedWriter(result, StandardCharsets.UTF_8)) {
+            out.write(runs.toString(2));
+        }
+        System.out.println("Results written to " + result.toAbsolutePath());
+    }
+
+    private static int[] ints(String property, String defaults) {
+        return Arrays.stream(System.getProperty(property, defaults).split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static JSONObject report(Stats stats) {
+        System.out.println(stats);
+        return stats.toJson();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Connector configuration with the defaults the DevKit annotations would have applied
+     */
+    private static ConnectorConfig config(int port, int pduLength, int bufferSize) {
+        ConnectorConfig config = new ConnectorConfig();
+        config.setAetName(AET);
+        config.setHostname("127.0.0.1");
+        config.setPort(port);
+        config.setReceivePduLength(pduLength);
+        config.setSendPduLength(pduLength);
+        config.setSendBufferSize(bufferSize);
+        config.setReceiveBufferSize(bufferSize);
+        config.setSocketCloseDelay(50);
+        config.setScpCoreThreads(4);
+        config.setScpMaxThreads(64);
+        config.setScuMaxThreads(64);
+        config.setScuScheduledThreads(1);
+        config.setScuThreadWait(30000);
+        config.setDeleteSpoolFiles(true);
+        config.setDurability(Durability.NONE);
+        return config;
+    }
+
+    /**
+     * Applies the run's PDU length and socket buffers to the SCU side, which otherwise uses fixed values
+     */
+    private static void tune(Connection conn, int pduLength, int bufferSize) {
+        conn.setReceivePDULength(pduLength);
+        conn.setSendPDULength(pduLength);
+        conn.setSendBufferSize(bufferSize);
+        conn.setReceiveBufferSize(bufferSize);
+    }
+
+    private static Stats store(int pduLength, int bufferSize, int maxOpsInvoked, int pixelBytes, int senders, int instances) throws Exception {
+        int port = freePort();
+        ConnectorConfig config = config(port, pduLength, bufferSize);
+        Map<String, Long> sent = new ConcurrentHashMap<>();
+        Latencies latencies = new Latencies(senders * instances);
+        // Stands in for the flow, timing each instance from when it was sent
+        SourceCallback callback = (SourceCallback)Proxy.newProxyInstance(SourceCallback.class.getClassLoader(), new Class<?>[] { SourceCallback.class },
+                (proxy, method, args) -> {
+                    if (args != null && args.length == 2) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> properties = (Map<String, Object>)args[1];
+                        Long start = sent.remove((String)properties.get("AffectedSOPInstanceUID"));
+                        if (start != null) latencies.add(System.nanoTime() - start);
+                    }
+                    return null;
+                });
+        MuleStoreSCP scp = new MuleStoreSCP(config, callback, null, null, null);
+        SCURuntime runtime = new SCURuntime(config);
+        tune(runtime.getConnection(0, maxOpsInvoked > 1 ? maxOpsInvoked : 0), pduLength, bufferSize);
+        Attributes data = SyntheticData.image(pixelBytes);
+        long instanceBytes = data.calcLength(DicomEncodingOptions.DEFAULT, true);
+        ExecutorService pool = Executors.newFixedThreadPool(senders);
+        scp.startReceiver();
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int s = 0; s < senders; s++) {
+                String prefix = StandInSCP.STUDY_UID + "." + (s + 2) + ".";
+                futures.add(pool.submit(() -> {
+                    if (maxOpsInvoked > 1) sendBatch(runtime, port, maxOpsInvoked, data, prefix, instances, sent);
+                    else send(runtime, port, data, prefix, instances, sent);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+            long elapsed = System.nanoTime() - start;
+            String name = "store " + (maxOpsInvoked > 1 ? "MuleBatchStoreSCU" : "MuleStoreSCU");
+            return new Stats(name, pduLength, bufferSize, maxOpsInvoked, pixelBytes, senders, latencies.size(), latencies.size() * instanceBytes, elapsed, latencies);
+        } finally {
+            pool.shutdownNow();
+            scp.stopReceiver();
+            runtime.shutdown();
+        }
+    }
+
+    private static void send(SCURuntime runtime, int port, Attributes data, String prefix, int instances, Map<String, Long> sent) throws Exception {
+        MuleStoreSCU scu = new MuleStoreSCU(runtime, UID.SecondaryCaptureImageStorage, UID.ExplicitVRLittleEndian, AET, "127.0.0.1", port, 0, null, null, false);
+        scu.open();
+        try {
+            for (int i = 0; i < instances; i++) {
+                String iuid = prefix + i;
+                sent.put(iuid, System.nanoTime());
+                scu.cstore(iuid, data);
+                scu.waitForOutstandingRSP();
+            }
+        } finally {
+            scu.close();
+        }
+    }
+
+    private static void sendBatch(SCURuntime runtime, int port, int maxOpsInvoked, Attributes data, String prefix, int instances, Map<String, Long> sent) throws Exception {
+        MuleBatchStoreSCU scu = new MuleBatchStoreSCU(runtime, AET, "127.0.0.1", port, maxOpsInvoked, null, null, false, UID.ExplicitVRLittleEndian);
+        List<MuleBatchStoreSCU.Item> items = new ArrayList<>(instances);
+        for (int i = 0; i < instances; i++) {
+            // Values are shared with data, only the UID differs
+            Attributes copy = new Attributes(data);
+            copy.setString(Tag.SOPInstanceUID, VR.UI, prefix + i);
+            items.add(scu.toItem(copy));
+        }
+        scu.addPresentationContexts(items);
+        scu.open();
+        try {
+            for (int i = 0; i < instances; i++) {
+                sent.put(prefix + i, System.nanoTime());
+                scu.cstore(items.get(i));
+            }
+        } finally {
+            scu.close();
+        }
+    }
+
+    private static SCUConfig scuConfig(int port, Map<String, Object> sopClasses) {
+        return new SCUConfig(StandInSCP.AET, "127.0.0.1", port, null, null, false, InformationModel.StudyRoot, RetrieveLevel.IMAGE, TransferSyntax.ExplicitFirst, sopClasses, 0, 0);
+    }
+
+    private static Attributes studyKeys() {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, RetrieveLevel.IMAGE.name());
+        keys.setString(Tag.StudyInstanceUID, VR.UI, StandInSCP.STUDY_UID);
+        keys.setNull(Tag.SOPInstanceUID, VR.UI);
+        keys.setNull(Tag.SOPClassUID, VR.UI);
+        return keys;
+    }
+
+    private static Stats find(int pduLength, int bufferSize, int instances, int queries) throws Exception {
+        int port = freePort();
+        StandInSCP standIn = new StandInSCP(port, pduLength, bufferSize, instances, 0);
+        SCURuntime runtime = new SCURuntime(config(0, pduLength, bufferSize));
+        tune(runtime.getConnection(0), pduLength, bufferSize);
+        Latencies latencies = new Latencies(queries);
+        SCUConfig config = scuConfig(port, new HashMap<>());
+        standIn.start();
+        try {
+            long results = 0;
+            long start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                long begin = System.nanoTime();
+                MuleSCU scu = new MuleSCU(runtime, "Find", config, null, config.getSopClasses());
+                scu.open();
+                MuleDimseRSPHandler handler;
+                try {
+                    handler = scu.cfind(config.getInformationModelCuid("Find"), studyKeys());
+                } finally {
+                    scu.close();
+                }
+                results += handler.getResultData().size();
+                latencies.add(System.nanoTime() - begin);
+            }
+            long elapsed = System.nanoTime() - start;
+            return new Stats("find MuleSCU", pduLength, bufferSize, 1, 0, 1, results, 0, elapsed, latencies);
+        } finally {
+            standIn.stop();
+            runtime.shutdown();
+        }
+    }
+
+    private static Stats get(int pduLength, int bufferSize, int pixelBytes, int instances, int retrieves) throws Exception {
+        int port = freePort();
+        StandInSCP standIn = new StandInSCP(port, pduLength, bufferSize, instances, pixelBytes);
+        SCURuntime runtime = new SCURuntime(config(0, pduLength, bufferSize));
+        tune(runtime.getConnection(0), pduLength, bufferSize);
+        Latencies latencies = new Latencies(retrieves);
+        Map<String, Object> sopClasses = new HashMap<>();
+        sopClasses.put(UID.SecondaryCaptureImageStorage, UID.ExplicitVRLittleEndian);
+        SCUConfig config = scuConfig(port, sopClasses);
+        long instanceBytes = SyntheticData.image(pixelBytes).calcLength(DicomEncodingOptions.DEFAULT, true);
+        Path folder = Files.createTempDirectory("loopback");
+        standIn.start();
+        try {
+            long received = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < retrieves; r++) {
+                long begin = System.nanoTime();
+                MuleFileStore store = new MuleFileStore(folder.toString(), null);
+                MuleSCU scu = new MuleSCU(runtime, "Get", config, store, config.getSopClasses());
+                scu.open();
+                try {
+                    scu.cget(config.getInformationModelCuid("Get"), studyKeys());
+                } finally {
+                    scu.close();
+                    store.finish();
+                }
+                received += store.getFileList().size();
+                latencies.add(System.nanoTime() - begin);
+            }
+            long elapsed = System.nanoTime() - start;
+            return new Stats("get MuleSCU", pduLength, bufferSize, 1, pixelBytes, 1, received, received * instanceBytes, elapsed, latencies);
+        } finally {
+            standIn.stop();
+            runtime.shutdown();
+            StoreUtils.deleteFolder(folder.toString());
+        }
+    }
+
+    /**
+     * Latencies in nanoseconds, recorded from many threads
+     */
+    private static final class Latencies {
+        private long[] values;
+        private int size = 0;
+
+        Latencies(int capacity) {
+            values = new long[Math.max(16, capacity)];
+        }
+
+        synchronized void add(long nanos) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = nanos;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Nearest-rank percentile in milliseconds
+         */
+        synchronized double percentile(double p) {
+            if (size == 0) return 0;
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int rank = (int)Math.ceil(p * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, rank))] / 1e6;
+        }
+    }
+
+    private static final class Stats {
+        static final String HEADER = String.format("%-26s %8s %8s %6s %10s %7s %9s %10s %8s %9s %9s %9s",
+                "Run", "PDU", "Buffer", "MaxOps", "PixelBytes", "Senders", "Count", "Count/s", "MB/s", "p50 ms", "p99 ms", "p999 ms");
+        final String name;
+        final int pduLength;
+        final int bufferSize;
+        final int maxOpsInvoked;
+        final int pixelBytes;
+        final int senders;
+        final long count;
+        final double perSecond;
+        final double megabytesPerSecond;
+        final double p50;
+        final double p99;
+        final double p999;
+
+        Stats(String name, int pduLength, int bufferSize, int maxOpsInvoked, int pixelBytes, int senders, long count, long bytes, long elapsedNanos, Latencies latencies) {
+            this.name = name;
+            this.pduLength = pduLength;
+            this.bufferSize = bufferSize;
+            this.maxOpsInvoked = maxOpsInvoked;
+            this.pixelBytes = pixelBytes;
+            this.senders = senders;
+            this.count = count;
+            double seconds = elapsedNanos / 1e9;
+            this.perSecond = count / seconds;
+            this.megabytesPerSecond = bytes / 1048576.0 / seconds;
+            this.p50 = latencies.percentile(0.50);
+            this.p99 = latencies.percentile(0.99);
+            this.p999 = latencies.percentile(0.999);
+        }
+
+        JSONObject toJson() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("run", name);
+            map.put("pduLength", pduLength);
+            map.put("bufferSize", bufferSize);
+            map.put("maxOpsInvoked", maxOpsInvoked);
+            map.put("pixelBytes", pixelBytes);
+            map.put("senders", senders);
+            map.put("count", count);
+            map.put("countPerSecond", perSecond);
+            map.put("megabytesPerSecond", megabytesPerSecond);
+            map.put("p50Millis", p50);
+            map.put("p99Millis", p99);
+            map.put("p999Millis", p999);
+            return new JSONObject(map);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-26s %8d %8d %6d %10d %7d %9d %10.1f %8.1f %9.3f %9.3f %9.3f",
+                    name, pduLength, bufferSize, maxOpsInvoked, pixelBytes, senders, count, perSecond, megabytesPerSecond, p50, p99, p999);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.DataWriter;
+import org.dcm4che3.net.DataWriterAdapter;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.TransferCapability;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.BasicCFindSCP;
+import org.dcm4che3.net.service.BasicCGetSCP;
+import org.dcm4che3.net.service.BasicQueryTask;
+import org.dcm4che3.net.service.BasicRetrieveTask;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.dcm4che3.net.service.InstanceLocator;
+import org.dcm4che3.net.service.QueryTask;
+import org.dcm4che3.net.service.RetrieveTask;
+
+/**
+ * A PACS stand-in that answers C-FIND and C-GET for one synthetic study of identical instances
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+final class StandInSCP {
+    static final String AET = "STANDIN";
+    static final String STUDY_UID = "1.2.826.0.1.3680043.2.1143.1";
+    private final Device device = new Device("standin");
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Attributes instance;
+    private final int instances;
+
+    /**
+     * @param instances Instances in the study
+     * @param pixelBytes Size of each instance's PixelData
+     */
+    StandInSCP(int port, int pduLength, int bufferSize, int instances, int pixelBytes) {
+        this.instances = instances;
+        this.instance = SyntheticData.image(pixelBytes);
+        instance.setString(Tag.StudyInstanceUID, VR.UI, STUDY_UID);
+        instance.setString(Tag.SeriesInstanceUID, VR.UI, STUDY_UID + ".1");
+
+        Connection conn = new Connection();
+        conn.setHostname("127.0.0.1");
+        conn.setPort(port);
+        conn.setReceivePDULength(pduLength);
+        conn.setSendPDULength(pduLength);
+        conn.setSendBufferSize(bufferSize);
+        conn.setReceiveBufferSize(bufferSize);
+        conn.setMaxOpsInvoked(0);
+        conn.setMaxOpsPerformed(0);
+        conn.setPackPDV(true);
+        conn.setTcpNoDelay(true);
+        ApplicationEntity ae = new ApplicationEntity(AET);
+        ae.setAssociationAcceptor(true);
+        ae.addConnection(conn);
+        ae.addTransferCapability(new TransferCapability(null, "*", TransferCapability.Role.SCP, "*"));
+        // C-GET sends its C-STOREs back over the requesting association
+        ae.addTransferCapability(new TransferCapability(null, "*", TransferCapability.Role.SCU, "*"));
+
+        DicomServiceRegistry registry = new DicomServiceRegistry();
+        registry.addDicomService(new BasicCEchoSCP());
+        registry.addDicomService(new FindSCP());
+        registry.addDicomService(new GetSCP());
+        device.setDimseRQHandler(registry);
+        device.addConnection(conn);
+        device.addApplicationEntity(ae);
+        device.setExecutor(executor);
+        device.setScheduledExecutor(scheduler);
+    }
+
+    void start() throws IOException, GeneralSecurityException {
+        device.bindConnections();
+    }
+
+    void stop() {
+        device.unbindConnections();
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private String instanceUID(int i) {
+        return STUDY_UID + ".1." + (i + 1);
+    }
+
+    private final class FindSCP extends BasicCFindSCP {
+        FindSCP() {
+            super(UID.StudyRootQueryRetrieveInformationModelFind, UID.PatientRootQueryRetrieveInformationModelFind);
+        }
+
+        @Override
+        protected QueryTask calculateMatches(Association as, PresentationContext pc, Attributes rq, Attributes keys) {
+            return new BasicQueryTask(as, pc, rq, keys) {
+                private int next = 0;
+
+                @Override
+                protected boolean hasMoreMatches() {
+                    return next < instances;
+                }
+
+                @Override
+                protected Attributes nextMatch() {
+                    Attributes match = new Attributes(keys);
+                    match.setString(Tag.StudyInstanceUID, VR.UI, STUDY_UID);
+                    match.setString(Tag.SeriesInstanceUID, VR.UI, STUDY_UID + ".1");
+                    match.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+                    match.setString(Tag.SOPInstanceUID, VR.UI, instanceUID(next++));
+                    return match;
+                }
+            };
+        }
+    }
+
+    private final class GetSCP extends BasicCGetSCP {
+        GetSCP() {
+            super(UID.StudyRootQueryRetrieveInformationModelGet, UID.PatientRootQueryRetrieveInformationModelGet);
+        }
+
+        @Override
+        protected RetrieveTask calculateMatches(Association as, PresentationContext pc, Attributes rq, Attributes keys) {
+            List<InstanceLocator> matches = new ArrayList<>(instances);
+            for (int i = 0; i < instances; i++) {
+                matches.add(new InstanceLocator(UID.SecondaryCaptureImageStorage, instanceUID(i), UID.ExplicitVRLittleEndian, "synthetic:" + i));
+            }
+            return new BasicRetrieveTask<InstanceLocator>(Dimse.C_GET_RQ, as, pc, rq, matches, as) {
+                @Override
+                protected DataWriter createDataWriter(InstanceLocator inst, String tsuid) {
+                    Attributes data = new Attributes(instance);
+                    data.setString(Tag.SOPInstanceUID, VR.UI, inst.iuid);
+                    return new DataWriterAdapter(data);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package edu.jh.pm.tic.dicom;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jh.pm.tic.dicom.config.StorageConfig;
+
+/**
+ * Building the presentation contexts of a retrieve's A-ASSOCIATE-RQ
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageConfigBenchmark {
+    @Param({ "8", "64", "127" })
+    public int sopClasses;
+    private Map<String,Object> strings;
+    private Map<String,Object> lists;
+
+    @Setup
+    public void setup() {
+        strings = SyntheticData.sopClasses(sopClasses, false);
+        lists = SyntheticData.sopClasses(sopClasses, true);
+    }
+
+    @Benchmark
+    public AAssociateRQ setSOPFromStrings() {
+        AAssociateRQ rq = new AAssociateRQ();
+        StorageConfig.setSOPFromMap(rq, strings);
+        return rq;
+    }
+
+    @Benchmark
+    public AAssociateRQ setSOPFromLists() {
+        AAssociateRQ rq = new AAssociateRQ();
+        StorageConfig.setSOPFromMap(rq, lists);
+        return rq;
+    }
+
+    @Benchmark
+    public AAssociateRQ setDefaultSOP() {
+        AAssociateRQ rq = new AAssociateRQ();
+        StorageConfig.setSOPFromMap(rq, null);
+        return rq;
+    }
+}
@@ -0,0 +1,160 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.util.StreamUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Each StoreUtils.writeTo overload writing an instance to a temporary file
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StoreUtilsBenchmark {
+    @Param({ "65536", "1048576", "16777216" })
+    public int pixelBytes;
+    private Attributes fmi;
+    private Attributes data;
+    private byte[] encoded;
+    private Path source;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fmi = SyntheticData.fileMetaInformation();
+        data = SyntheticData.image(pixelBytes);
+        target = Files.createTempFile("benchmark", ".dcm");
+        source = Files.createTempFile("benchmark", ".dcm");
+        try (OutputStream out = Files.newOutputStream(source)) {
+            StoreUtils.writeTo(out, data, fmi);
+        }
+        // The dataset as it arrives on the wire, without the File Meta Information
+        try (DicomInputStream dis = new DicomInputStream(source.toFile())) {
+            dis.getFileMetaInformation();
+            encoded = new byte[(int)(Files.size(source) - dis.getPosition())];
+            StreamUtils.readFully(dis, encoded, 0, encoded.length);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(source);
+    }
+
+    @Benchmark
+    public void outputStreamAttributes() throws IOException {
+        try (OutputStream out = Files.newOutputStream(target)) {
+            StoreUtils.writeTo(out, data, fmi);
+        }
+    }
+
+    @Benchmark
+    public void outputStreamBytes() throws IOException {
+        try (OutputStream out = Files.newOutputStream(target)) {
+            StoreUtils.writeTo(out, encoded, fmi);
+        }
+    }
+
+    @Benchmark
+    public void outputStreamPDV() throws IOException {
+        try (OutputStream out = Files.newOutputStream(target)) {
+            StoreUtils.writeTo(out, new BytesPDVInputStream(encoded), fmi);
+        }
+    }
+
+    @Benchmark
+    public long pathInputStream() throws IOException {
+        return StoreUtils.writeTo(target, fmi, new ByteArrayInputStream(encoded), encoded.length);
+    }
+
+    @Benchmark
+    public long pathFileInputStream() throws IOException {
+        try (FileInputStream in = new FileInputStream(source.toFile())) {
+            return StoreUtils.writeTo(target, fmi, in, 0);
+        }
+    }
+
+    @Benchmark
+    public long pathFileChannel() throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            return StoreUtils.writeTo(target, fmi, in, in.size());
+        }
+    }
+
+    /**
+     * Stands in for the PDVs of a received C-STORE
+     */
+    private static final class BytesPDVInputStream extends PDVInputStream {
+        private final ByteArrayInputStream in;
+
+        BytesPDVInputStream(byte[] bytes) {
+            this.in = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public Attributes readDataset(String tsuid) throws IOException {
+            try (DicomInputStream dis = new DicomInputStream(in, tsuid)) {
+                return dis.readDataset();
+            }
+        }
+
+        @Override
+        public void copyTo(OutputStream out, int length) throws IOException {
+            StreamUtils.copy(in, out, length);
+        }
+
+        @Override
+        public void copyTo(OutputStream out) throws IOException {
+            StreamUtils.copy(in, out);
+        }
+
+        @Override
+        public long skipAll() {
+            return in.skip(Long.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package edu.jh.pm.tic.dicom;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.TagUtils;
+import org.json.JSONObject;
+import org.mule.api.MuleMessage;
+
+/**
+ * Builds datasets, query maps and payloads of a chosen size for the benchmarks
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+final class SyntheticData {
+    private static final List<String> KEYWORDS = new ArrayList<>();
+
+    static {
+        // Public string tags outside the command and file meta groups, in dataset order
+        ElementDictionary dict = ElementDictionary.getStandardElementDictionary();
+        for (Field f : Tag.class.getFields()) {
+            if (!Modifier.isStatic(f.getModifiers()) || f.getType() != int.class) continue;
+            try {
+                int tag = f.getInt(null);
+                VR vr = dict.vrOf(tag);
+                if (TagUtils.groupNumber(tag) < 8 || TagUtils.elementNumber(tag) == 0 || TagUtils.isPrivateGroup(tag)) continue;
+                if (vr == VR.SQ || !vr.isStringType()) continue;
+                KEYWORDS.add(f.getName());
+            } catch (IllegalAccessException ignore) { }
+        }
+    }
+
+    private SyntheticData() { }
+
+    /**
+     * Query keys, half with values to match and half blank to return
+     */
+    static Map<String,Object> queryMap(int size) {
+        Map<String,Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size && i < KEYWORDS.size(); i++) map.put(KEYWORDS.get(i), i % 2 == 0 ? "VALUE" + i : "");
+        return map;
+    }
+
+    static String queryJson(int size) {
+        return new JSONObject(queryMap(size)).toString();
+    }
+
+    static Attributes flatDataset(int size) {
+        Attributes data = new Attributes(size);
+        ElementDictionary dict = ElementDictionary.getStandardElementDictionary();
+        for (int i = 0; i < size && i < KEYWORDS.size(); i++) {
+            int tag = ElementDictionary.tagForKeyword(KEYWORDS.get(i), null);
+            data.setString(tag, dict.vrOf(tag), "VALUE" + i);
+        }
+        return data;
+    }
+
+    /**
+     * Structured Report content tree, fanout items at each level down to depth
+     */
+    static Attributes structuredReport(int depth, int fanout) {
+        Attributes data = new Attributes();
+        data.setString(Tag.SOPClassUID, VR.UI, UID.ComprehensiveSRStorage);
+        data.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4.5.6.7.8.9");
+        data.setString(Tag.ValueType, VR.CS, "CONTAINER");
+        addContent(data, depth, fanout);
+        return data;
+    }
+
+    private static void addContent(Attributes parent, int depth, int fanout) {
+        if (depth <= 0) return;
+        Sequence content = parent.newSequence(Tag.ContentSequence, fanout);
+        for (int i = 0; i < fanout; i++) {
+            Attributes item = new Attributes();
+            item.setString(Tag.RelationshipType, VR.CS, "CONTAINS");
+            item.setString(Tag.ValueType, VR.CS, depth > 1 ? "CONTAINER" : "TEXT");
+            Attributes code = new Attributes();
+            code.setString(Tag.CodeValue, VR.SH, "C" + depth + "." + i);
+            code.setString(Tag.CodingSchemeDesignator, VR.SH, "99TEST");
+            code.setString(Tag.CodeMeaning, VR.LO, "Finding " + depth + "." + i);
+            item.newSequence(Tag.ConceptNameCodeSequence, 1).add(code);
+            if (depth > 1) addContent(item, depth - 1, fanout);
+            else item.setString(Tag.TextValue, VR.UT, "Text at level " + depth + " item " + i);
+            content.add(item);
+        }
+    }
+
+    /**
+     * An instance whose PixelData is pixelBytes of noise
+     */
+    static Attributes image(int pixelBytes) {
+        Attributes data = flatDataset(20);
+        data.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        data.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4.5.6.7.8.9");
+        data.setBytes(Tag.PixelData, VR.OB, bytes(pixelBytes));
+        return data;
+    }
+
+    static Attributes fileMetaInformation() {
+        return Attributes.createFileMetaInformation("1.2.3.4.5.6.7.8.9", UID.SecondaryCaptureImageStorage, UID.ExplicitVRLittleEndian);
+    }
+
+    static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * SOP Classes mapped to Transfer Syntaxes, as a comma separated string or a list
+     */
+    static Map<String,Object> sopClasses(int count, boolean asList) {
+        Map<String,Object> map = new LinkedHashMap<>();
+        for (Field f : UID.class.getFields()) {
+            if (map.size() >= count) break;
+            if (!f.getName().endsWith("Storage")) continue;
+            try {
+                String cuid = (String)f.get(null);
+                if (asList) {
+                    List<Object> tsuids = new ArrayList<>();
+                    tsuids.add(UID.ImplicitVRLittleEndian);
+                    tsuids.add(UID.ExplicitVRLittleEndian);
+                    tsuids.add(UID.JPEGBaseline8Bit);
+                    map.put(cuid, tsuids);
+                } else {
+                    map.put(cuid, "ImplicitVRLittleEndian,ExplicitVRLittleEndian,JPEGBaseline8Bit");
+                }
+            } catch (IllegalAccessException ignore) { }
+        }
+        return map;
+    }
+
+    /**
+     * A MuleMessage that only has a payload, enough for AttribUtils.payloadToKeys
+     */
+    static MuleMessage message(Object payload) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().equals("getPayload")) return payload;
+            throw new UnsupportedOperationException(method.getName());
+        };
+        return (MuleMessage)Proxy.newProxyInstance(MuleMessage.class.getClassLoader(), new Class<?>[] { MuleMessage.class }, handler);
+    }
+}
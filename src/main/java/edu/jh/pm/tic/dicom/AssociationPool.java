@@ -0,0 +1,299 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps negotiated Store SCU associations open so they can be reused by later C-STORE requests.
+ * Associations are keyed by remote AE, host, port, SOP Class, Transfer Syntax and user identity.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class AssociationPool {
+    private static final Logger log = LoggerFactory.getLogger(AssociationPool.class);
+    private final int maxPerRemote;
+    private final int idleTimeout;
+    private final int maxWait;
+    private final boolean validateOnBorrow;
+    private final Map<Key, Deque<MuleStoreSCU>> idle = new HashMap<>();
+    private final Map<String, Integer> openPerRemote = new HashMap<>();
+    private final ScheduledFuture<?> evictor;
+    private boolean closed = false;
+    private long hits;
+    private long misses;
+    private long created;
+    private long evictions;
+    private long validationFailures;
+    private int leased;
+
+    interface Factory {
+        MuleStoreSCU create();
+    }
+
+    /**
+     * @param maxPerRemote Maximum open associations (idle and leased) per remote AE, host and port
+     * @param idleTimeout Milliseconds an association may sit idle before it's released
+     * @param maxWait Milliseconds to wait for a free association when the remote is at its limit (0 is infinite)
+     * @param validateOnBorrow Send a C-ECHO before handing out an idle association
+     * @param scheduler Runs the idle eviction
+     */
+    public AssociationPool(int maxPerRemote, int idleTimeout, int maxWait, boolean validateOnBorrow, ScheduledExecutorService scheduler) {
+        this.maxPerRemote = maxPerRemote;
+        this.idleTimeout = idleTimeout;
+        this.maxWait = maxWait;
+        this.validateOnBorrow = validateOnBorrow;
+        if (idleTimeout > 0) {
+            long period = Math.max(1000L, idleTimeout / 2L);
+            this.evictor = scheduler.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.evictor = null;
+        }
+    }
+
+    /**
+     * Returns an open association for the key, reusing an idle one if possible.
+     * Every borrowed association must be given back with {@link #giveBack(Key, MuleStoreSCU, boolean)}.
+     */
+    public MuleStoreSCU borrow(Key key, Factory factory) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        long deadline = maxWait > 0 ? System.currentTimeMillis() + maxWait : Long.MAX_VALUE;
+        while (true) {
+            MuleStoreSCU scu = null;
+            MuleStoreSCU evicted = null;
+            synchronized (this) {
+                while (true) {
+                    if (closed) throw new IOException("Association pool is closed");
+                    scu = pollIdle(key);
+                    if (scu != null) break;
+                    if (maxPerRemote <= 0 || openCount(key) < maxPerRemote) break;
+                    // At the limit for this remote, make room by dropping an idle association with another key
+                    evicted = evictOneIdle(key.getRemote());
+                    if (evicted != null) break;
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) throw new IOException("Timed out waiting for an association to " + key.getRemote());
+                    wait(remaining);
+                }
+                leased++;
+                if (scu == null) {
+                    misses++;
+                    openPerRemote.merge(key.getRemote(), 1, Integer::sum);
+                }
+            }
+            // Abort outside of the lock, it waits on the socket
+            if (evicted != null) evicted.abort();
+            if (scu == null) return connect(key, factory);
+            // Validate outside of the lock, a C-ECHO is a network round trip
+            if (isHealthy(scu)) {
+                synchronized (this) { hits++; }
+                return scu;
+            }
+            synchronized (this) {
+                validationFailures++;
+                leased--;
+                decrementOpen(key);
+                notifyAll();
+            }
+            scu.abort();
+        }
+    }
+
+    private MuleStoreSCU connect(Key key, Factory factory) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        // Connect outside of the lock so slow remotes don't stall other keys
+        MuleStoreSCU scu = factory.create();
+        boolean connected = false;
+        try {
+            scu.open();
+            connected = true;
+        } finally {
+            synchronized (this) {
+                if (connected) created++;
+                else {
+                    leased--;
+                    decrementOpen(key);
+                    notifyAll();
+                }
+            }
+            if (!connected) scu.abort();
+        }
+        return scu;
+    }
+
+    /**
+     * Returns a borrowed association to the pool. Unhealthy associations are released instead.
+     */
+    public void giveBack(Key key, MuleStoreSCU scu, boolean reusable) {
+        boolean keep;
+        synchronized (this) {
+            leased--;
+            keep = !closed && reusable && scu.isOpen();
+            if (keep) {
+                scu.touch();
+                idle.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(scu);
+            } else {
+                decrementOpen(key);
+            }
+            notifyAll();
+        }
+        if (!keep) scu.release();
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        int idleCount = 0;
+        for (Deque<MuleStoreSCU> entries : idle.values()) idleCount += entries.size();
+        stats.put("Hits", hits);
+        stats.put("Misses", misses);
+        stats.put("Created", created);
+        stats.put("Evictions", evictions);
+        stats.put("ValidationFailures", validationFailures);
+        stats.put("Idle", idleCount);
+        stats.put("Leased", leased);
+        long requests = hits + misses;
+        stats.put("HitRatio", requests == 0 ? 0.0 : (double) hits / requests);
+        return stats;
+    }
+
+    public void close() {
+        List<MuleStoreSCU> toClose = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Deque<MuleStoreSCU> entries : idle.values()) {
+                toClose.addAll(entries);
+            }
+            idle.clear();
+            openPerRemote.clear();
+            notifyAll();
+        }
+        if (evictor != null) evictor.cancel(false);
+        for (MuleStoreSCU scu : toClose) scu.release();
+        log.debug("Closed association pool, released {} idle associations", toClose.size());
+    }
+
+    void evictIdle() {
+        List<MuleStoreSCU> toClose = new ArrayList<>();
+        long cutoff = System.currentTimeMillis() - idleTimeout;
+        synchronized (this) {
+            for (Iterator<Map.Entry<Key, Deque<MuleStoreSCU>>> it = idle.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Key, Deque<MuleStoreSCU>> e = it.next();
+                for (Iterator<MuleStoreSCU> entries = e.getValue().iterator(); entries.hasNext(); ) {
+                    MuleStoreSCU scu = entries.next();
+                    if (scu.getLastUsed() < cutoff || !scu.isOpen()) {
+                        entries.remove();
+                        decrementOpen(e.getKey());
+                        evictions++;
+                        toClose.add(scu);
+                    }
+                }
+                if (e.getValue().isEmpty()) it.remove();
+            }
+            if (!toClose.isEmpty()) notifyAll();
+        }
+        for (MuleStoreSCU scu : toClose) scu.release();
+        if (!toClose.isEmpty()) log.debug("Evicted {} idle associations", toClose.size());
+    }
+
+    private MuleStoreSCU pollIdle(Key key) {
+        Deque<MuleStoreSCU> entries = idle.get(key);
+        if (entries == null) return null;
+        MuleStoreSCU scu = entries.pollFirst();
+        if (entries.isEmpty()) idle.remove(key);
+        return scu;
+    }
+
+    private boolean isHealthy(MuleStoreSCU scu) {
+        if (!scu.isOpen()) return false;
+        return !validateOnBorrow || scu.echo();
+    }
+
+    /**
+     * Drops the least recently used idle association to the remote, which the caller aborts once it's out of the lock
+     */
+    private MuleStoreSCU evictOneIdle(String remote) {
+        for (Iterator<Map.Entry<Key, Deque<MuleStoreSCU>>> it = idle.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Deque<MuleStoreSCU>> e = it.next();
+            if (!e.getKey().getRemote().equals(remote)) continue;
+            MuleStoreSCU scu = e.getValue().pollLast();
+            if (e.getValue().isEmpty()) it.remove();
+            if (scu != null) {
+                evictions++;
+                decrementOpen(e.getKey());
+                return scu;
+            }
+        }
+        return null;
+    }
+
+    private int openCount(Key key) {
+        return openPerRemote.getOrDefault(key.getRemote(), 0);
+    }
+
+    private void decrementOpen(Key key) {
+        openPerRemote.computeIfPresent(key.getRemote(), (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    /**
+     * Identifies associations that negotiate the same presentation context with the same remote
+     */
+    static final class Key {
+        private final String aetName;
+        private final String hostname;
+        private final int port;
+        private final String cuid;
+        private final String tsuid;
+        private final String userName;
+        // Callers with the same user name but a different password must not share an authenticated association
+        private final String userPassword;
+        private final boolean userResponseRequested;
+
+        Key(String aetName, String hostname, int port, String cuid, String tsuid, String userName, String userPassword, boolean userResponseRequested) {
+            this.aetName = aetName;
+            this.hostname = hostname;
+            this.port = port;
+            this.cuid = cuid;
+            this.tsuid = tsuid;
+            this.userName = userName;
+            this.userPassword = userPassword;
+            this.userResponseRequested = userResponseRequested;
+        }
+
+        String getRemote() { return aetName + "@" + hostname + ":" + port; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return port == k.port && userResponseRequested == k.userResponseRequested && Objects.equals(aetName, k.aetName) && Objects.equals(hostname, k.hostname)
+                    && Objects.equals(cuid, k.cuid) && Objects.equals(tsuid, k.tsuid) && Objects.equals(userName, k.userName)
+                    && Objects.equals(userPassword, k.userPassword);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(aetName, hostname, port, cuid, tsuid, userName, userPassword, userResponseRequested);
+        }
+
+        @Override
+        public String toString() {
+            return getRemote() + " " + cuid + " " + tsuid;
+        }
+    }
+}
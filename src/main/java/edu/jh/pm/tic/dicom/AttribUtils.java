@@ -1,7 +1,6 @@
 package edu.jh.pm.tic.dicom;
 
 import org.dcm4che3.data.Attributes;
-import org.dcm4che3.data.ElementDictionary;
 import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.util.TagUtils;
@@ -16,8 +15,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Copyright (c) 2022 The Johns Hopkins University
@@ -28,55 +25,17 @@ import java.util.regex.Pattern;
  */
 public class AttribUtils {
     private static final String UNKNOWN = "Unknown";
-    private static final Pattern hexTag = Pattern.compile("^0[xX][0-9a-fA-F]{8}$");
-    private static final Pattern intTag = Pattern.compile("^\\d+$");
-    private static final Pattern pairTag = Pattern.compile("^([0-9a-fA-F]{4})\\W([0-9a-fA-F]{4})$");
+    static final Object SKIPPED = new Object();
 
     private AttribUtils() { }
 
-    private static int stringToTag(String name) {
-        int tag = -1;
-        if (hexTag.matcher(name).matches()) {
-            tag = Integer.decode(name);
-        } else if (intTag.matcher(name).matches()) {
-            tag = Integer.parseInt(name, 16);
-        } else if (pairTag.matcher(name).matches()) {
-            Matcher m = pairTag.matcher(name);
-            if (m.find()) {
-                int group = Integer.decode("0x" + m.group(1));
-                int element = Integer.decode("0x" + m.group(2));
-                tag = (group << 16) + element;
-            }
-        } else {
-            tag = ElementDictionary.tagForKeyword(name, (String)null);
-        }
-        if (tag == -1) {
-            throw new IllegalArgumentException(name);
-        }
-        return tag;
-    }
-
+    /**
+     * Sets keys from a map, resolving its key names through the KeySchema cache
+     */
     public static void addKeys(Attributes keys, Map<String, Object> entities) {
-        Map<Integer,Object> privateTags = new HashMap<>();
-        for (Map.Entry<String, Object> key : entities.entrySet()) {
-            int tag = stringToTag(key.getKey());
-            if (TagUtils.isPrivateCreator(tag)) {
-                keys.setString(tag, VR.LO, (String) key.getValue());
-            } else if (TagUtils.isPrivateTag(tag)) {
-                privateTags.put(tag, key.getValue());
-            } else {
-                VR vr = ElementDictionary.vrOf(tag, null);
-                keys.setValue(tag, vr, key.getValue());
-            }
-        }
-        // Add the private tags
-        for (Map.Entry<Integer, Object> key : privateTags.entrySet()) {
-            int tag = key.getKey();
-            int creatorTag = TagUtils.creatorTagOf(tag);
-            String privateCreator = keys.getString(creatorTag, UNKNOWN);
-            keys.setString(privateCreator, tag, VR.LO, (String)key.getValue());
-        }
+        KeySchema.forKeys(entities.keySet()).addKeys(keys, entities);
     }
+
     public static Attributes toKeys(Map<String, Object> entities) {
         Attributes keys = new Attributes();
         addKeys(keys, entities);
@@ -94,6 +53,14 @@ public class AttribUtils {
     }
 
 
+    /**
+     * Same keys and values as attributesToMap, but read-only and decoded only when read.
+     * Cheaper when a flow reads a few keys, and the Attributes stay referenced while the map is.
+     */
+    public static Map<String,Object> attributesView(Attributes data) {
+        return new AttributesMap(data);
+    }
+
     public static Attributes payloadToKeys(MuleMessage muleMessage) throws IOException {
         Object payload = muleMessage.getPayload();
         if (payload instanceof String) {
@@ -152,12 +119,10 @@ public class AttribUtils {
         else if (TagUtils.isPrivateTag(tag)) {
             int creatorTag = TagUtils.creatorTagOf(tag);
             privateCreator = data.getString(creatorTag, UNKNOWN);
-            tagName = String.format("%s (%04x,%04x)", privateCreator, tag >> 16, tag & 0xFFFF);
-        } else {
-            tagName = ElementDictionary.keywordOf(tag, null);
         }
-        if (tagName.isEmpty()) tagName = UNKNOWN;
-        Object tagValue = data.getValue(privateCreator, tag);
+        tagName = TagNames.nameOf(privateCreator, tag);
+        Object tagValue = decodeValue(data, privateCreator, tag);
+        if (tagValue == SKIPPED) return;
         if (tagValue instanceof Sequence) {
             Sequence tagSeq = (Sequence)tagValue;
             List<Map<String,Object>> list = new ArrayList<>();
@@ -170,48 +135,47 @@ public class AttribUtils {
             }
             map.put(tagName, list);
         } else {
-            vrToMap(data, tag, tagName, map);
+            map.put(tagName, tagValue);
         }
     }
 
-    private static void vrToMap(Attributes data, int tag, String tagName, Map<String,Object> map) {
+    /**
+     * Decodes a tag's value the way attributesToMap does. Sequences are returned as they are.
+     * @return The value, or SKIPPED for binary values that aren't converted
+     */
+    static Object decodeValue(Attributes data, String privateCreator, int tag) {
+        Object tagValue = data.getValue(privateCreator, tag);
+        if (tagValue instanceof Sequence) return tagValue;
         VR vr = data.getVR(tag);
-        if (vr.isIntType()) map.put(tagName, data.getInt(tag, 0));
-        else if (vr.isStringType()) map.put(tagName, data.getString(tag));
-        else {
-            switch (vr.code()) {
-                case 17988: // double
-                case 20292: // double
-                    map.put(tagName, data.getDouble(tag, 0));
-                    break;
-                case 17996: // float
-                case 20294: // float
-                    map.put(tagName, data.getFloat(tag, 0));
-                    break;
-                case 20300: // int
-                case 21324: // int
-                case 21843: // ushort
-                    map.put(tagName, data.getInt(tag, 0));
-                    break;
-                case 20311: // short
-                case 21331: // short
-                    map.put(tagName, (short)data.getInt(tag, 0));
-                    break;
-                case 20310: // long
-                case 21334: // long
-                case 21836: // uint
-                case 21846: // ulong
-                    map.put(tagName, data.getLong(tag, 0));
-                    break;
-                case 16724: // tag (binary)
-                case 20290: // byte
-                case 21838: // byte
-                case 21329: // sequence
-                    break;
-                default: // string
-                    map.put(tagName, data.getString(tag));
-                    break;
-            }
+        if (vr == null) return SKIPPED;
+        if (vr.isIntType()) return data.getInt(tag, 0);
+        else if (vr.isStringType()) return data.getString(tag);
+        switch (vr.code()) {
+            case 17988: // double
+            case 20292: // double
+                return data.getDouble(tag, 0);
+            case 17996: // float
+            case 20294: // float
+                return data.getFloat(tag, 0);
+            case 20300: // int
+            case 21324: // int
+            case 21843: // ushort
+                return data.getInt(tag, 0);
+            case 20311: // short
+            case 21331: // short
+                return (short)data.getInt(tag, 0);
+            case 20310: // long
+            case 21334: // long
+            case 21836: // uint
+            case 21846: // ulong
+                return data.getLong(tag, 0);
+            case 16724: // tag (binary)
+            case 20290: // byte
+            case 21838: // byte
+            case 21329: // sequence
+                return SKIPPED;
+            default: // string
+                return data.getString(tag);
         }
     }
 }
@@ -0,0 +1,188 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.util.TagUtils;
+
+/**
+ * Read-only Map view of Attributes with the same keys and values as AttribUtils.attributesToMap.
+ * Keys are resolved, values decoded and sequences wrapped only when they're read.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public class AttributesMap extends AbstractMap<String,Object> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String UNKNOWN = "Unknown";
+    private final Attributes data;
+    private transient Set<Map.Entry<String,Object>> entrySet;
+    private transient int size = -1;
+    // Public tags without a keyword are all named Unknown, and like attributesToMap the last one wins
+    private transient int unknownTag = -2;
+
+    public AttributesMap(Attributes data) {
+        this.data = data != null ? data : new Attributes(0);
+    }
+
+    public Attributes getAttributes() { return data; }
+
+    @Override
+    public Object get(Object key) {
+        int tag = tagOf(key);
+        if (tag == -1) return null;
+        Object value = AttribUtils.decodeValue(data, privateCreatorOf(tag), tag);
+        return value == AttribUtils.SKIPPED ? null : wrap(value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int tag = tagOf(key);
+        return tag != -1 && AttribUtils.decodeValue(data, privateCreatorOf(tag), tag) != AttribUtils.SKIPPED;
+    }
+
+    /**
+     * The tag a key names in this data, or -1
+     */
+    private int tagOf(Object key) {
+        if (!(key instanceof String)) return -1;
+        if (UNKNOWN.equals(key)) return unknownTag();
+        TagNames.Name name;
+        try {
+            name = TagNames.parse((String)key);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        int tag = name.getTag();
+        if (TagUtils.isPrivateCreator(tag) || !data.contains(tag)) return -1;
+        if (TagUtils.isPrivateTag(tag)) {
+            // Private tags are only found by the name attributesToMap gives them
+            if (!((String)key).equals(TagNames.nameOf(privateCreatorOf(tag), tag))) return -1;
+        } else if (!((String)key).equals(TagNames.nameOf(null, tag))) {
+            return -1;
+        }
+        return tag;
+    }
+
+    /**
+     * The last public tag named Unknown that has a value, or -1
+     */
+    private int unknownTag() {
+        if (unknownTag == -2) {
+            int found = -1;
+            int[] tags = data.tags();
+            for (int i = tags.length - 1; i >= 0 && found == -1; i--) {
+                int tag = tags[i];
+                if (!TagUtils.isPrivateTag(tag) && UNKNOWN.equals(TagNames.nameOf(null, tag))
+                        && AttribUtils.decodeValue(data, null, tag) != AttribUtils.SKIPPED) found = tag;
+            }
+            unknownTag = found;
+        }
+        return unknownTag;
+    }
+
+    private String privateCreatorOf(int tag) {
+        if (!TagUtils.isPrivateTag(tag)) return null;
+        return data.getString(TagUtils.creatorTagOf(tag), UNKNOWN);
+    }
+
+    private static Object wrap(Object value) {
+        return value instanceof Sequence ? new SequenceList((Sequence)value) : value;
+    }
+
+    @Override
+    public int size() {
+        if (size < 0) {
+            int count = 0;
+            for (Iterator<Map.Entry<String,Object>> it = entrySet().iterator(); it.hasNext(); it.next()) count++;
+            size = count;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return !entrySet().iterator().hasNext();
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String,Object>>() {
+                @Override
+                public Iterator<Map.Entry<String,Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return AttributesMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String,Object>> {
+        private final int[] tags = data.tags();
+        private int index = 0;
+        private Map.Entry<String,Object> next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && index < tags.length) {
+                int tag = tags[index++];
+                if (TagUtils.isPrivateCreator(tag)) continue;
+                String privateCreator = privateCreatorOf(tag);
+                Object value = AttribUtils.decodeValue(data, privateCreator, tag);
+                if (value == AttribUtils.SKIPPED) continue;
+                String name = TagNames.nameOf(privateCreator, tag);
+                if (UNKNOWN.equals(name) && tag != unknownTag()) continue;
+                next = new SimpleImmutableEntry<>(name, wrap(value));
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String,Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Map.Entry<String,Object> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+
+    /**
+     * Read-only List view of a sequence, each item a map view
+     */
+    static final class SequenceList extends AbstractList<Map<String,Object>> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final List<Attributes> items;
+
+        SequenceList(Sequence sequence) {
+            this.items = sequence;
+        }
+
+        @Override
+        public Map<String,Object> get(int index) {
+            return new AttributesMap(items.get(index));
+        }
+
+        @Override
+        public int size() {
+            return items.size();
+        }
+    }
+}
@@ -1,24 +1,38 @@
 package edu.jh.pm.tic.dicom;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.io.DicomInputStream;
-import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.net.Status;
 import org.mule.api.MuleMessage;
 import org.mule.api.annotations.Config;
 import org.mule.api.annotations.Connector;
@@ -36,12 +50,20 @@ import org.slf4j.LoggerFactory;
 
 import edu.jh.pm.tic.dicom.config.ConnectorConfig;
 import edu.jh.pm.tic.dicom.config.SCUConfig;
+import edu.jh.pm.tic.dicom.metrics.ConnectorMetrics;
+import edu.jh.pm.tic.dicom.models.Durability;
 import edu.jh.pm.tic.dicom.models.InformationModel;
+import edu.jh.pm.tic.dicom.models.ReadMode;
 import edu.jh.pm.tic.dicom.models.RetrieveLevel;
 import edu.jh.pm.tic.dicom.models.TransferSyntax;
+import edu.jh.pm.tic.dicom.store.InFlightLimiter;
 import edu.jh.pm.tic.dicom.store.MuleFileStore;
+import edu.jh.pm.tic.dicom.store.MuleStore;
 import edu.jh.pm.tic.dicom.store.Notification;
+import edu.jh.pm.tic.dicom.store.WriteBehindWriter;
+import edu.jh.pm.tic.dicom.trace.TraceRecorder;
 
+import org.mule.api.annotations.lifecycle.Start;
 import org.mule.api.annotations.lifecycle.Stop;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
@@ -58,8 +80,22 @@ import org.mule.api.annotations.param.Optional;
 public class DicomConnector {
     private static final Logger log = LoggerFactory.getLogger(DicomConnector.class);
     private static final String SOURCE_AET = "SourceApplicationEntityTitle";
+    private static final String CACHED = "Cached";
     private static final String PAYLOAD_ERROR = "Payload must be of type [org.dcm4che3.data.Attributes]";
     private MuleStoreSCP storeScp = null;
+    private SCURuntime scuRuntime = null;
+    private AssociationPool storePool = null;
+    private InFlightLimiter memoryBudget = null;
+    private WriteBehindWriter writeBehindWriter = null;
+    private FindCache findCache = null;
+    private FindCoalescer findCoalescer = null;
+    private ForkJoinPool readPool = null;
+    private ExecutorService retrievePool = null;
+    private final Map<String, RetrieveJournal> awaitedInstances = new ConcurrentHashMap<>();
+    private ConnectorMetrics metrics = null;
+    private TraceRecorder tracer = null;
+    private volatile SourceCallback progressCallback = null;
+    private RetrieveRegistry retrieves = null;
 
     @Config
     ConnectorConfig config;
@@ -69,17 +105,201 @@ public class DicomConnector {
     @Source(friendlyName = "Store SCP", sourceStrategy = SourceStrategy.NONE)
     @Summary("Listens for C-STORE operations. Produces a org.dcm4che3.data.Attributes object for each DICOM file received.")
     public void storeScp(SourceCallback callback) throws IOException, GeneralSecurityException {
-        storeScp = new MuleStoreSCP(config, callback);
+        storeScp = new MuleStoreSCP(config, callback, getMemoryBudget(), getMetrics(), getTracer());
+        storeScp.setStoredListener(iuid -> {
+            RetrieveJournal journal = awaitedInstances.get(iuid);
+            if (journal != null) journal.received(iuid);
+        });
         storeScp.startReceiver();
         log.debug("Started {} on port {}", config.getAetName(), config.getPort());
     }
 
+    @Source(friendlyName = "Retrieve Progress", sourceStrategy = SourceStrategy.NONE)
+    @Summary("Receives progress of Move SCU and Get SCU operations that publish it. Produces a Map<String,Object> of the sub-operation counts for each event.")
+    public void retrieveProgress(SourceCallback callback) {
+        progressCallback = callback;
+    }
+
+    @Source(friendlyName = "Retrieve Completed", sourceStrategy = SourceStrategy.NONE)
+    @Summary("Receives the status of every Move SCU Async and Get SCU Async once it finishes. Produces the same Map<String,Object> as Retrieve Status.")
+    public void retrieveCompleted(SourceCallback callback) {
+        getRetrieves().setCallback(callback);
+    }
+
+    @Start
+    public void start() {
+        getScuRuntime();
+    }
+
     @Stop
     public void disconnect() {
+        progressCallback = null;
         if (storeScp != null) {
             storeScp.stopReceiver();
             log.debug("Stopped {}", config.getAetName());
         }
+        synchronized (this) {
+            if (storePool != null) {
+                storePool.close();
+                storePool = null;
+            }
+            if (writeBehindWriter != null) {
+                writeBehindWriter.shutdown();
+                writeBehindWriter = null;
+            }
+            if (readPool != null) {
+                readPool.shutdown();
+                readPool = null;
+            }
+            if (retrievePool != null) {
+                retrievePool.shutdown();
+                retrievePool = null;
+            }
+            if (metrics != null) {
+                metrics.close();
+                metrics = null;
+            }
+            if (scuRuntime != null) {
+                scuRuntime.shutdown();
+                scuRuntime = null;
+            }
+            if (retrieves != null) {
+                retrieves.shutdown();
+                retrieves = null;
+            }
+            if (tracer != null) {
+                tracer.close();
+                tracer = null;
+            }
+        }
+    }
+
+    private synchronized SCURuntime getScuRuntime() {
+        if (scuRuntime == null) scuRuntime = new SCURuntime(config, getMetrics(), getTracer());
+        return scuRuntime;
+    }
+
+    private synchronized AssociationPool getStorePool() {
+        if (config.getStorePoolMaxPerRemote() <= 0) return null;
+        if (storePool == null) {
+            storePool = new AssociationPool(config.getStorePoolMaxPerRemote(), config.getStorePoolIdleTimeout(),
+                    config.getStorePoolMaxWait(), config.getStorePoolValidate(), getScuRuntime().getScheduledExecutor());
+        }
+        return storePool;
+    }
+
+    /**
+     * Shared by everything that receives instances, null when no budget is configured
+     */
+    private synchronized InFlightLimiter getMemoryBudget() {
+        if (config.getMemoryBudgetMegabytes() <= 0) return null;
+        if (memoryBudget == null) memoryBudget = new InFlightLimiter(config.getMemoryBudgetMegabytes() * 1048576L);
+        return memoryBudget;
+    }
+
+    /**
+     * The filter from the processor's tag lists, or the configuration's when both are blank
+     */
+    private TagFilter getTagFilter(String includeTags, String excludeTags) {
+        boolean blank = (includeTags == null || includeTags.trim().isEmpty()) && (excludeTags == null || excludeTags.trim().isEmpty());
+        if (blank) return TagFilter.parse(config.getIncludeTags(), config.getExcludeTags());
+        return TagFilter.parse(includeTags, excludeTags);
+    }
+
+    private synchronized FindCache getFindCache() {
+        if (config.getFindCacheTtl() <= 0) return null;
+        if (findCache == null) findCache = new FindCache(config.getFindCacheTtl(), config.getFindCacheMaxEntries());
+        return findCache;
+    }
+
+    private synchronized FindCoalescer getFindCoalescer() {
+        if (findCoalescer == null) findCoalescer = new FindCoalescer();
+        return findCoalescer;
+    }
+
+    private synchronized WriteBehindWriter getWriteBehindWriter() {
+        if (config.getWriteBehindThreads() <= 0) return null;
+        if (writeBehindWriter == null) {
+            writeBehindWriter = new WriteBehindWriter(config.getWriteBehindThreads(), config.getWriteBehindQueueMegabytes() * 1048576L, getMemoryBudget());
+        }
+        return writeBehindWriter;
+    }
+
+    private synchronized ConnectorMetrics getMetrics() {
+        if (!config.getMetricsEnabled()) return null;
+        if (metrics == null) metrics = new ConnectorMetrics(config.getAetName());
+        return metrics;
+    }
+
+    /**
+     * Threads of parallel retrieves, each holding one association while it works through its share.
+     * No more than SCU Max Threads associations can be open, so that bounds the pool too. Workers past
+     * it wait their turn, and by then the other workers of their retrieve have usually emptied its queue.
+     */
+    private synchronized ExecutorService getRetrievePool() {
+        if (retrievePool == null) {
+            AtomicInteger count = new AtomicInteger();
+            int maxThreads = Math.max(1, config.getScuMaxThreads());
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "dicom-parallel-retrieve-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            retrievePool = pool;
+        }
+        return retrievePool;
+    }
+
+    private synchronized RetrieveRegistry getRetrieves() {
+        if (retrieves == null) retrieves = new RetrieveRegistry(config.getAsyncRetrieveRetention());
+        return retrieves;
+    }
+
+    private synchronized TraceRecorder getTracer() {
+        if (config.getTraceSamplePercent() <= 0) return null;
+        if (tracer == null) {
+            tracer = new TraceRecorder(config.getTraceSamplePercent(), config.getTraceBufferSize(), config.getTraceDirectory(),
+                    config.getTraceFileMegabytes() * 1048576L, config.getTraceFiles());
+        }
+        return tracer;
+    }
+
+    private synchronized ForkJoinPool getReadPool() {
+        if (readPool == null) {
+            int parallelism = config.getReadFilesParallelism() > 0 ? config.getReadFilesParallelism() : Runtime.getRuntime().availableProcessors();
+            readPool = new ForkJoinPool(parallelism);
+        }
+        return readPool;
+    }
+
+    /**
+     * Combines the Java listener of a retrieve with publishing to the Retrieve Progress source
+     */
+    private RetrieveProgressListener progressListener(String operation, String aetName, boolean publishProgress, RetrieveProgressListener listener, MuleMessage muleMessage) {
+        SourceCallback callback = publishProgress ? progressCallback : null;
+        if (callback == null) return listener;
+        String correlationId = muleMessage.getUniqueId();
+        return (messageId, status, completed, remaining, failed, warning) -> {
+            if (listener != null) listener.progress(messageId, status, completed, remaining, failed, warning);
+            Map<String,Object> event = new HashMap<>();
+            event.put("Operation", operation);
+            event.put("RemoteApplicationEntityTitle", aetName);
+            event.put("MuleMessageID", correlationId);
+            event.put("MessageID", messageId);
+            event.put("Status", status);
+            event.put("StatusText", MuleDimseRSPHandler.getStatusText(status));
+            event.put("Final", !Status.isPending(status));
+            event.put("NumberOfCompletedSuboperations", completed);
+            event.put("NumberOfRemainingSuboperations", remaining);
+            event.put("NumberOfFailedSuboperations", failed);
+            event.put("NumberOfWarningSuboperations", warning);
+            try {
+                callback.process(event);
+            } catch (Exception e) {
+                log.warn("Retrieve Progress flow failed: {}", e.getMessage());
+            }
+        };
     }
 
     @Processor(friendlyName = "Move SCU")
@@ -96,16 +316,35 @@ public class DicomConnector {
     		@Placement(group = "Presentation Context") @FriendlyName("Storage SOP Classes") @Summary("List of Storage Service-Order Pair (SOP) Classes and their TransferSyntax") @Optional Map<String,Object> sopClasses,
     		@Placement(group = "Timings") @Optional @Default("0") int storeTimeout,
     		@Placement(group = "Timings") @Optional @Default("0") @Summary("Duration in milliseconds (0 is infinite)") int cancelAfter,
+    		@Placement(group = "Progress") @Default("false") @Summary("Sends the sub-operation counts of each response to the Retrieve Progress source") boolean publishProgress,
+    		@Placement(group = "Progress") @Default("0") @Summary("Minimum milliseconds between pending progress events, the final response is always sent") int progressInterval,
+    		@Placement(group = "Progress") @Optional @Summary("Instance of a class that implements edu.jh.pm.tic.dicom.RetrieveProgressListener") RetrieveProgressListener progressListener,
+    		@Placement(group = "Parallel") @Default("false") @Summary("C-FIND the series and instances the keys select within the study, then retrieve them over concurrent associations") boolean parallel,
+    		@Placement(group = "Parallel") @Default("0") @Summary("Concurrent associations, 0 uses the configuration's for the remote AE") int parallelism,
+    		@Placement(group = "Parallel") @Default("SERIES") @Summary("SERIES retrieves each series separately, IMAGE retrieves batches of instances") RetrieveLevel fanOutLevel,
+    		@Placement(group = "Parallel") @Default("100") @Summary("SOP Instance UIDs in each IMAGE level retrieve") int instancesPerRetrieve,
+    		@Placement(group = "Resume") @Default("false") @Summary("Journals each instance that arrives. If the journal of an unfinished retrieve with the same keys is left, only its missing instances are retrieved.") boolean resumable,
             MuleMessage muleMessage) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
     	SCUConfig remoteConnection = new SCUConfig(aetName, hostname, port, userName, userPassword, userResponseRequested, informationModel, retrieveLevel, transferSyntax, sopClasses, storeTimeout, cancelAfter);
         Attributes keys = AttribUtils.payloadToKeys(muleMessage);
     	String level = remoteConnection.getRetrieveLevelDefault();
         if (level != null) keys.setString(Tag.QueryRetrieveLevel, VR.CS, level);
+        if (resumable) {
+            muleMessage.addProperties(resumableRetrieve("Move", remoteConnection, keys, null, null, null, parallel, parallelism, fanOutLevel, instancesPerRetrieve,
+                    progressListener("Move", aetName, publishProgress, progressListener, muleMessage), progressInterval), PropertyScope.INBOUND);
+            return muleMessage.getPayload();
+        }
+        if (parallel) {
+            muleMessage.addProperties(parallelRetrieve("Move", remoteConnection, keys, null, parallelism, fanOutLevel, instancesPerRetrieve,
+                    progressListener("Move", aetName, publishProgress, progressListener, muleMessage), progressInterval), PropertyScope.INBOUND);
+            return muleMessage.getPayload();
+        }
         MuleDimseRSPHandler handler = null;
-        MuleSCU scu = new MuleSCU("Move", remoteConnection, config, null, remoteConnection.getSopClasses());
+        MuleSCU scu = new MuleSCU(getScuRuntime(), "Move", remoteConnection, null, remoteConnection.getSopClasses());
         try {
             scu.open();
-            handler = scu.cmove(remoteConnection.getInformationModelCuid("Move"), keys);
+            handler = scu.cmove(remoteConnection.getInformationModelCuid("Move"), keys,
+                    progressListener("Move", aetName, publishProgress, progressListener, muleMessage), progressInterval);
         } finally {
             scu.close();
         }
@@ -126,22 +365,101 @@ public class DicomConnector {
     		@Placement(group = "Presentation Context") @Optional @Summary("Can be PATIENT, STUDY, SERIES, IMAGE, or FRAME") RetrieveLevel retrieveLevel,
     		@Placement(group = "Presentation Context") @Summary("Preferred compression of VR tags") @Default("ImplicitFirst") TransferSyntax transferSyntax,
     		@Placement(group = "Timings") @Optional @Default("0") @Summary("Duration in milliseconds (0 is infinite)") int cancelAfter,
+    		@Placement(group = "Results") @Optional @Default("0") @Summary("Sends C-CANCEL once this many results arrive (0 is unlimited)") int maxResults,
+    		@Placement(group = "Results") @Optional @Default("true") @Summary("Use the connector's C-FIND cache, when it's configured") boolean useCache,
+    		@Placement(group = "Results") @Optional @Summary("Comma separated tags kept in each result, blank uses the configuration's") String includeTags,
+    		@Placement(group = "Results") @Optional @Summary("Comma separated tags dropped from each result, blank uses the configuration's") String excludeTags,
     		MuleMessage muleMessage) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
     	SCUConfig remoteConnection = new SCUConfig(aetName, hostname, port, userName, userPassword, userResponseRequested, informationModel, retrieveLevel, transferSyntax, new HashMap<>(), 0, cancelAfter);
         Attributes keys = AttribUtils.payloadToKeys(muleMessage);
     	String level = remoteConnection.getRetrieveLevelDefault();
         if (level != null) keys.setString(Tag.QueryRetrieveLevel, VR.CS, level);
-        MuleDimseRSPHandler handler = null;
-        MuleSCU scu = new MuleSCU("Find", remoteConnection, config, null, remoteConnection.getSopClasses());
+        String cuid = remoteConnection.getInformationModelCuid("Find");
+        FindCache cache = useCache ? getFindCache() : null;
+        FindCoalescer coalescer = config.getCoalesceFinds() ? getFindCoalescer() : null;
+        TagFilter tagFilter = getTagFilter(includeTags, excludeTags);
+        FindCache.Key cacheKey = null;
+        if (cache != null || coalescer != null) {
+            String projection = tagFilter == null ? null : (includeTags + "|" + excludeTags);
+            cacheKey = new FindCache.Key(aetName, hostname, port, userName, userPassword, cuid, maxResults, projection, keys);
+        }
+        if (cache != null) {
+            FindCache.Result cached = cache.get(cacheKey);
+            if (cached != null) {
+                muleMessage.addProperties(cached.getStatus(), PropertyScope.INBOUND);
+                muleMessage.setProperty(CACHED, true, PropertyScope.INBOUND);
+                return cached.getRows();
+            }
+        }
+        final FindCache.Key key = cacheKey;
+        FindCoalescer.Query query = () -> {
+            MuleDimseRSPHandler handler = null;
+            MuleSCU scu = new MuleSCU(getScuRuntime(), "Find", remoteConnection, null, remoteConnection.getSopClasses());
+            try {
+                scu.open();
+                handler = scu.cfind(cuid, keys, maxResults, tagFilter);
+            } finally {
+                scu.close();
+            }
+            FindCache.Result result = new FindCache.Result(handler.getResultData(), handler.getResultStatus());
+            // Canceled, timed out and failed queries are incomplete, so only successes are cached
+            if (cache != null && handler.getStatus() == Status.Success) cache.put(key, result);
+            return result;
+        };
+        FindCache.Result result = coalescer != null ? coalescer.execute(key, query) : query.execute();
+        muleMessage.addProperties(result.getStatus(), PropertyScope.INBOUND);
+        if (cache != null) muleMessage.setProperty(CACHED, false, PropertyScope.INBOUND);
+        return result.getRows();
+    }
+
+    @Processor(friendlyName = "Find Cache Invalidate")
+    @Summary("Drops cached C-FIND results for a remote Application Entity, or all of them. Returns the number dropped.")
+    public int findCacheInvalidate(@Optional @FriendlyName("AE Title") @Summary("Remote Application Entity Title, blank for all") String aetName) {
+        FindCache cache = getFindCache();
+        if (cache == null) return 0;
+        return cache.invalidate(aetName == null || aetName.isEmpty() ? null : aetName);
+    }
+
+    @Processor(friendlyName = "Find Cache Statistics")
+    @Summary("Returns Hits, Misses, Evictions, Expirations, Invalidations, Size and HitRatio of the C-FIND cache, and Executed, Coalesced and InFlight queries when coalescing")
+    public Map<String,Object> findCacheStatistics() {
+        Map<String,Object> stats = new HashMap<>();
+        FindCache cache = getFindCache();
+        if (cache != null) stats.putAll(cache.getStatistics());
+        if (config.getCoalesceFinds()) stats.putAll(getFindCoalescer().getStatistics());
+        return stats;
+    }
+
+    @Processor(friendlyName = "Find SCU Stream")
+    @Summary("Performs C-FIND with remote Application Entity, returning an Iterator<Map<String,Object>> that yields each result as it arrives. Use with For Each.")
+    public Iterator<Map<String,Object>> findScuStream(@Placement(group = "Remote Connection") @FriendlyName("AE Title") @Summary("Application Entity Title") String aetName,
+    		@Placement(group = "Remote Connection") @Default("0.0.0.0") String hostname,
+    		@Placement(group = "Remote Connection") @Default("104") int port,
+            @Placement(group = "Remote Connection") @Optional String userName,
+            @Placement(group = "Remote Connection") @Optional @Password String userPassword,
+            @Placement(group = "Remote Connection") @Default("true") @Summary("Require positive response from Username/Password Identity") boolean userResponseRequested,
+    		@Placement(group = "Presentation Context") @Summary("Can be PatientRoot, PatientStudyOnly, CompositeInstanceRoot, HangingProtocol, ColorPalette, or StudyRoot (the default)") @Default("StudyRoot") InformationModel informationModel,
+    		@Placement(group = "Presentation Context") @Optional @Summary("Can be PATIENT, STUDY, SERIES, IMAGE, or FRAME") RetrieveLevel retrieveLevel,
+    		@Placement(group = "Presentation Context") @Summary("Preferred compression of VR tags") @Default("ImplicitFirst") TransferSyntax transferSyntax,
+    		@Placement(group = "Timings") @Optional @Default("0") @Summary("Duration in milliseconds (0 is infinite)") int cancelAfter,
+    		@Placement(group = "Results") @Optional @Default("0") @Summary("Sends C-CANCEL once this many results arrive (0 is unlimited)") int maxResults,
+    		@Placement(group = "Results") @Optional @Default("256") @Summary("Results buffered ahead of the flow. Once full, reading from the remote waits") int prefetch,
+    		@Placement(group = "Results") @Optional @Summary("Comma separated tags kept in each result, blank uses the configuration's") String includeTags,
+    		@Placement(group = "Results") @Optional @Summary("Comma separated tags dropped from each result, blank uses the configuration's") String excludeTags,
+    		MuleMessage muleMessage) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+    	SCUConfig remoteConnection = new SCUConfig(aetName, hostname, port, userName, userPassword, userResponseRequested, informationModel, retrieveLevel, transferSyntax, new HashMap<>(), 0, cancelAfter);
+        Attributes keys = AttribUtils.payloadToKeys(muleMessage);
+    	String level = remoteConnection.getRetrieveLevelDefault();
+        if (level != null) keys.setString(Tag.QueryRetrieveLevel, VR.CS, level);
+        MuleSCU scu = new MuleSCU(getScuRuntime(), "Find", remoteConnection, null, remoteConnection.getSopClasses());
         try {
             scu.open();
-            handler = scu.cfind(remoteConnection.getInformationModelCuid("Find"), keys);
-        } finally {
+            // The iterator releases the association once the last result is read
+            return scu.cfindStream(remoteConnection.getInformationModelCuid("Find"), keys, maxResults, getTagFilter(includeTags, excludeTags), prefetch);
+        } catch (IOException | InterruptedException | IncompatibleConnectionException | GeneralSecurityException | RuntimeException e) {
             scu.close();
+            throw e;
         }
-        if (handler == null) return new ArrayList<>();
-        muleMessage.addProperties(handler.getResultStatus(), PropertyScope.INBOUND);
-        return handler.getResultData();
     }
 
     @Processor(friendlyName = "Get SCU")
@@ -160,19 +478,51 @@ public class DicomConnector {
     		@Placement(group = "Timings") @Optional @Default("0") @Summary("Duration in milliseconds (0 is infinite)") int cancelAfter,
             @Summary("Folder where all files are saved") String outputFilePath,
             @Optional @Summary("Instance of a class that implements edu.jh.pm.dicom.store.Notification") Notification notification,
+    		@Placement(group = "Progress") @Default("false") @Summary("Sends the sub-operation counts of each response to the Retrieve Progress source") boolean publishProgress,
+    		@Placement(group = "Progress") @Default("0") @Summary("Minimum milliseconds between pending progress events, the final response is always sent") int progressInterval,
+    		@Placement(group = "Progress") @Optional @Summary("Instance of a class that implements edu.jh.pm.tic.dicom.RetrieveProgressListener") RetrieveProgressListener progressListener,
+    		@Placement(group = "Parallel") @Default("false") @Summary("C-FIND the series and instances the keys select within the study, then retrieve them over concurrent associations") boolean parallel,
+    		@Placement(group = "Parallel") @Default("0") @Summary("Concurrent associations, 0 uses the configuration's for the remote AE") int parallelism,
+    		@Placement(group = "Parallel") @Default("SERIES") @Summary("SERIES retrieves each series separately, IMAGE retrieves batches of instances") RetrieveLevel fanOutLevel,
+    		@Placement(group = "Parallel") @Default("100") @Summary("SOP Instance UIDs in each IMAGE level retrieve") int instancesPerRetrieve,
+    		@Placement(group = "Resume") @Default("false") @Summary("Journals each instance that arrives. If the journal of an unfinished retrieve with the same keys is left, only its missing instances are retrieved.") boolean resumable,
             MuleMessage muleMessage) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
     	SCUConfig remoteConnection = new SCUConfig(aetName, hostname, port, userName, userPassword, userResponseRequested, informationModel, retrieveLevel, transferSyntax, sopClasses, storeTimeout, cancelAfter);
     	Attributes keys = AttribUtils.payloadToKeys(muleMessage);
     	String level = remoteConnection.getRetrieveLevelDefault();
         if (level != null) keys.setString(Tag.QueryRetrieveLevel, VR.CS, level);
+        if (resumable) {
+            List<String> files = new ArrayList<>();
+            muleMessage.addProperties(resumableRetrieve("Get", remoteConnection, keys, outputFilePath, notification, files, parallel, parallelism, fanOutLevel, instancesPerRetrieve,
+                    progressListener("Get", aetName, publishProgress, progressListener, muleMessage), progressInterval), PropertyScope.INBOUND);
+            return files;
+        }
         MuleDimseRSPHandler handler = null;
-        MuleFileStore fileStore = new MuleFileStore(outputFilePath, notification);
-        MuleSCU scu = new MuleSCU("Get", remoteConnection, config, fileStore, remoteConnection.getSopClasses());
+        MuleFileStore fileStore = new MuleFileStore(outputFilePath, notification, getWriteBehindWriter(), config.getDurability());
+        if (parallel) {
+            Map<String,Object> status;
+            try {
+                status = parallelRetrieve("Get", remoteConnection, keys, fileStore, parallelism, fanOutLevel, instancesPerRetrieve,
+                        progressListener("Get", aetName, publishProgress, progressListener, muleMessage), progressInterval);
+            } finally {
+                fileStore.finish();
+            }
+            if (notification != null) notification.finished();
+            MuleDimseRSPHandler.correctResults(status, fileStore.getFileList().size());
+            muleMessage.addProperties(status, PropertyScope.INBOUND);
+            return fileStore.getFileList();
+        }
+        MuleSCU scu = new MuleSCU(getScuRuntime(), "Get", remoteConnection, fileStore, remoteConnection.getSopClasses());
         try {
             scu.open();
-            handler = scu.cget(remoteConnection.getInformationModelCuid("Get"), keys);
+            handler = scu.cget(remoteConnection.getInformationModelCuid("Get"), keys,
+                    progressListener("Get", aetName, publishProgress, progressListener, muleMessage), progressInterval);
         } finally {
-            scu.close();
+            try {
+                scu.close();
+            } finally {
+                fileStore.finish();
+            }
         }
         if (notification != null) notification.finished();
         if (handler != null) {
@@ -186,6 +536,246 @@ public class DicomConnector {
         }
     }
     
+    @Processor(friendlyName = "Move SCU Async")
+    @Summary("Starts a C-MOVE with a remote Application Entity and returns an edu.jh.pm.tic.dicom.RetrieveHandle without waiting for it. Search keys are read from payload Map<String,Object>.")
+    public RetrieveHandle moveScuAsync(@Placement(group = "Remote Connection") @FriendlyName("AE Title") @Summary("Application Entity Title") String aetName,
+    		@Placement(group = "Remote Connection") @Default("0.0.0.0") String hostname,
+    		@Placement(group = "Remote Connection") @Default("104") int port,
+            @Placement(group = "Remote Connection") @Optional String userName,
+            @Placement(group = "Remote Connection") @Optional @Password String userPassword,
+            @Placement(group = "Remote Connection") @Default("true") @Summary("Require positive response from Username/Password Identity") boolean userResponseRequested,
+    		@Placement(group = "Presentation Context") @Summary("Can be PatientRoot, PatientStudyOnly, CompositeInstanceRoot, HangingProtocol, ColorPalette, or StudyRoot (the default)") @Default("StudyRoot") InformationModel informationModel,
+    		@Placement(group = "Presentation Context") @Optional @Summary("Can be PATIENT, STUDY, SERIES, IMAGE, or FRAME") RetrieveLevel retrieveLevel,
+    		@Placement(group = "Presentation Context") @Summary("Preferred compression of VR tags") @Default("ImplicitFirst") TransferSyntax transferSyntax,
+    		@Placement(group = "Presentation Context") @FriendlyName("Storage SOP Classes") @Summary("List of Storage Service-Order Pair (SOP) Classes and their TransferSyntax") @Optional Map<String,Object> sopClasses,
+    		@Placement(group = "Timings") @Optional @Default("0") int storeTimeout,
+    		@Placement(group = "Timings") @Optional @Default("0") @Summary("Duration in milliseconds (0 is infinite)") int cancelAfter,
+    		@Placement(group = "Progress") @Default("false") @Summary("Sends the sub-operation counts of each response to the Retrieve Progress source") boolean publishProgress,
+    		@Placement(group = "Progress") @Default("0") @Summary("Minimum milliseconds between pending progress events, the final response is always sent") int progressInterval,
+    		@Placement(group = "Progress") @Optional @Summary("Instance of a class that implements edu.jh.pm.tic.dicom.RetrieveProgressListener") RetrieveProgressListener progressListener,
+            MuleMessage muleMessage) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+    	SCUConfig remoteConnection = new SCUConfig(aetName, hostname, port, userName, userPassword, userResponseRequested, informationModel, retrieveLevel, transferSyntax, sopClasses, storeTimeout, cancelAfter);
+        Attributes keys = AttribUtils.payloadToKeys(muleMessage);
+    	String level = remoteConnection.getRetrieveLevelDefault();
+        if (level != null) keys.setString(Tag.QueryRetrieveLevel, VR.CS, level);
+        RetrieveHandle handle = startRetrieve("Move", remoteConnection, keys, null, null, null,
+                progressListener("Move", aetName, publishProgress, progressListener, muleMessage), progressInterval);
+        muleMessage.addProperties(Collections.singletonMap(RetrieveHandle.RETRIEVE_ID, handle.getId()), PropertyScope.INBOUND);
+        return handle;
+    }
+
+    @Processor(friendlyName = "Get SCU Async")
+    @Summary("Starts a C-GET with a remote Application Entity and returns an edu.jh.pm.tic.dicom.RetrieveHandle without waiting for it. Its result lists the saved Files.")
+    public RetrieveHandle getScuAsync(@Placement(group = "Remote Connection") @FriendlyName("AE Title") @Summary("Application Entity Title") String aetName,
+    		@Placement(group = "Remote Connection") @Default("0.0.0.0") String hostname,
+    		@Placement(group = "Remote Connection") @Default("104") int port,
+            @Placement(group = "Remote Connection") @Optional String userName,
+            @Placement(group = "Remote Connection") @Optional @Password String userPassword,
+            @Placement(group = "Remote Connection") @Default("true") @Summary("Require positive response from Username/Password Identity") boolean userResponseRequested,
+    		@Placement(group = "Presentation Context") @Summary("Can be PatientRoot, PatientStudyOnly, CompositeInstanceRoot, HangingProtocol, ColorPalette, or StudyRoot (the default)") @Default("StudyRoot") InformationModel informationModel,
+    		@Placement(group = "Presentation Context") @Optional @Summary("Can be PATIENT, STUDY, SERIES, IMAGE, or FRAME") RetrieveLevel retrieveLevel,
+    		@Placement(group = "Presentation Context") @Summary("Preferred compression of VR tags") @Default("ImplicitFirst") TransferSyntax transferSyntax,
+    		@Placement(group = "Presentation Context") @FriendlyName("Storage SOP Classes") @Summary("List of Storage Service-Order Pair (SOP) Classes and their TransferSyntax") @Optional Map<String,Object> sopClasses,
+    		@Placement(group = "Timings") @Optional @Default("0") int storeTimeout,
+    		@Placement(group = "Timings") @Optional @Default("0") @Summary("Duration in milliseconds (0 is infinite)") int cancelAfter,
+            @Summary("Folder where all files are saved") String outputFilePath,
+            @Optional @Summary("Instance of a class that implements edu.jh.pm.dicom.store.Notification") Notification notification,
+    		@Placement(group = "Progress") @Default("false") @Summary("Sends the sub-operation counts of each response to the Retrieve Progress source") boolean publishProgress,
+    		@Placement(group = "Progress") @Default("0") @Summary("Minimum milliseconds between pending progress events, the final response is always sent") int progressInterval,
+    		@Placement(group = "Progress") @Optional @Summary("Instance of a class that implements edu.jh.pm.tic.dicom.RetrieveProgressListener") RetrieveProgressListener progressListener,
+            MuleMessage muleMessage) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+    	SCUConfig remoteConnection = new SCUConfig(aetName, hostname, port, userName, userPassword, userResponseRequested, informationModel, retrieveLevel, transferSyntax, sopClasses, storeTimeout, cancelAfter);
+    	Attributes keys = AttribUtils.payloadToKeys(muleMessage);
+    	String level = remoteConnection.getRetrieveLevelDefault();
+        if (level != null) keys.setString(Tag.QueryRetrieveLevel, VR.CS, level);
+        MuleFileStore fileStore = new MuleFileStore(outputFilePath, notification, getWriteBehindWriter(), config.getDurability());
+        RetrieveHandle handle = startRetrieve("Get", remoteConnection, keys, fileStore, notification, outputFilePath,
+                progressListener("Get", aetName, publishProgress, progressListener, muleMessage), progressInterval);
+        muleMessage.addProperties(Collections.singletonMap(RetrieveHandle.RETRIEVE_ID, handle.getId()), PropertyScope.INBOUND);
+        return handle;
+    }
+
+    /**
+     * Retrieves a study as concurrent SERIES or IMAGE level retrieves, see ParallelRetrieve.
+     * Progress is reported for all of them added together.
+     */
+    private Map<String,Object> parallelRetrieve(String operation, SCUConfig remoteConnection, Attributes keys, MuleStore store,
+            int parallelism, RetrieveLevel fanOutLevel, int instancesPerRetrieve, RetrieveProgressListener listener, int progressInterval) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        int associations = parallelism > 0 ? parallelism
+                : ParallelRetrieve.parallelismFor(remoteConnection.getAetName(), config.getParallelRetrieveLimits(), config.getParallelRetrieveDefault());
+        ParallelRetrieve retrieve = new ParallelRetrieve(getScuRuntime(), remoteConnection, operation, store, associations, getRetrievePool());
+        retrieve.setProgress(listener, progressInterval);
+        return retrieve.retrieveStudy(keys, fanOutLevel, instancesPerRetrieve);
+    }
+
+    /**
+     * Journals a study retrieve so it can be resumed. The first time, the instances the keys select are found and
+     * the retrieve runs as usual, or in parallel. When the journal of an unfinished retrieve is left, only the
+     * instances it's missing are retrieved, as IMAGE level batches over concurrent associations. The journal
+     * is removed once every instance has arrived.
+     *
+     * @param files Receives the files of a C-GET, including those saved by earlier attempts
+     */
+    private Map<String,Object> resumableRetrieve(String operation, SCUConfig remoteConnection, Attributes keys, String outputFilePath, Notification notification, List<String> files,
+            boolean parallel, int parallelism, RetrieveLevel fanOutLevel, int instancesPerRetrieve, RetrieveProgressListener listener, int progressInterval) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        String study = keys.getString(Tag.StudyInstanceUID);
+        if (study == null) throw new IOException("A resumable retrieve needs the StudyInstanceUID");
+        boolean get = "Get".equals(operation);
+        if (!get && storeScp == null) log.warn("Instances moved to {} can only be journaled while its Store SCP is running", config.getAetName());
+        int associations = parallelism > 0 ? parallelism
+                : ParallelRetrieve.parallelismFor(remoteConnection.getAetName(), config.getParallelRetrieveLimits(), config.getParallelRetrieveDefault());
+        Path path = getJournalDirectory().resolve(RetrieveJournal.fileName(operation, remoteConnection.getAetName(), keys));
+        boolean resumed = Files.exists(path);
+        ParallelRetrieve finder = new ParallelRetrieve(getScuRuntime(), remoteConnection, operation, null, associations, getRetrievePool());
+        List<Map<String,Object>> series = null;
+        List<Map<String,Object>> instances = null;
+        if (!resumed) {
+            series = finder.findSeries(keys);
+            instances = finder.findInstances(keys, series);
+        }
+        try (RetrieveJournal journal = resumed ? RetrieveJournal.open(path) : RetrieveJournal.create(path, instances, study)) {
+            List<Map<String,Object>> missing = journal.getMissing();
+            MuleFileStore fileStore = null;
+            if (get) {
+                fileStore = new MuleFileStore(outputFilePath, notification, getWriteBehindWriter(), config.getDurability(), !resumed);
+                fileStore.setStoredListener(journal::received);
+            }
+            ParallelRetrieve retrieve = new ParallelRetrieve(getScuRuntime(), remoteConnection, operation, fileStore, associations, getRetrievePool());
+            retrieve.setProgress(listener, progressInterval);
+            List<ParallelRetrieve.Unit> units;
+            // The journal holds what the keys select, so the first attempt retrieves the same with the keys as they are
+            if (resumed || (parallel && ParallelRetrieve.fanOutLevel(keys, fanOutLevel) == RetrieveLevel.IMAGE)) units = ParallelRetrieve.instanceUnits(missing, instancesPerRetrieve);
+            else if (parallel) units = retrieve.seriesUnits(keys, series);
+            else units = Collections.singletonList(new ParallelRetrieve.Unit(keys, journal.getExpected()));
+            // Moved instances arrive at the Store SCP, which records those the journal is waiting for
+            List<String> awaited = new ArrayList<>();
+            if (!get) {
+                for (Map<String,Object> instance : missing) awaited.add((String)instance.get("SOPInstanceUID"));
+                for (String iuid : awaited) awaitedInstances.put(iuid, journal);
+            }
+            Map<String,Object> status;
+            try {
+                status = units.isEmpty() ? MuleBatchStoreSCU.summarize(0, 0, 0) : retrieve.retrieve(units);
+            } finally {
+                for (String iuid : awaited) awaitedInstances.remove(iuid, journal);
+                if (fileStore != null) fileStore.finish();
+            }
+            if (get) {
+                if (notification != null) notification.finished();
+                MuleDimseRSPHandler.correctResults(status, fileStore.getFileList().size());
+                try (DirectoryStream<Path> saved = Files.newDirectoryStream(Paths.get(outputFilePath), "*.dcm")) {
+                    for (Path file : saved) files.add(file.toString());
+                }
+            }
+            status.put("Resumed", resumed);
+            status.put("NumberOfJournaledInstances", journal.getExpected());
+            status.put("NumberOfReceivedInstances", journal.getReceived());
+            status.put("NumberOfMissingInstances", journal.getExpected() - journal.getReceived());
+            if (journal.isComplete()) {
+                journal.delete();
+            } else {
+                status.put("Journal", path.toString());
+            }
+            return status;
+        }
+    }
+
+    private Path getJournalDirectory() {
+        String directory = config.getRetrieveJournalDirectory();
+        return (directory == null || directory.isEmpty()) ? Paths.get(System.getProperty("java.io.tmpdir"), "dicom-retrieve-journals") : Paths.get(directory);
+    }
+
+    /**
+     * Opens the association and sends the C-MOVE, or C-GET when there's a file store. The association
+     * is released by the completion pool once the final response arrives.
+     */
+    private RetrieveHandle startRetrieve(String operation, SCUConfig remoteConnection, Attributes keys, MuleFileStore fileStore, Notification notification, String outputFilePath,
+            RetrieveProgressListener listener, int progressInterval) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        RetrieveRegistry registry = getRetrieves();
+        RetrieveHandle handle = registry.create(operation, remoteConnection.getAetName());
+        MuleSCU scu = new MuleSCU(getScuRuntime(), operation, remoteConnection, fileStore, remoteConnection.getSopClasses());
+        RetrieveRSPHandler handler;
+        try {
+            scu.open();
+            String cuid = remoteConnection.getInformationModelCuid(operation);
+            handler = fileStore != null ? scu.cget(cuid, keys, listener, progressInterval) : scu.cmove(cuid, keys, listener, progressInterval);
+        } catch (IOException | InterruptedException | IncompatibleConnectionException | GeneralSecurityException | RuntimeException e) {
+            registry.remove(handle);
+            try {
+                scu.close();
+            } finally {
+                if (fileStore != null) {
+                    fileStore.finish();
+                    StoreUtils.deleteFolder(outputFilePath);
+                }
+            }
+            throw e;
+        }
+        handle.running(scu, handler);
+        handler.setOnFinished(() -> registry.finish(handle, () -> {
+            try {
+                scu.close();
+            } finally {
+                if (fileStore != null) fileStore.finish();
+            }
+            if (fileStore == null) return new HashMap<>(handler.getResultStatus());
+            if (notification != null) notification.finished();
+            // C-GET incorrectly reports everything as failed. This is a hack to autocorrect.
+            handler.updateResults(fileStore.getFileList().size());
+            Map<String,Object> result = new HashMap<>(handler.getResultStatus());
+            result.put("Files", new ArrayList<>(fileStore.getFileList()));
+            return result;
+        }));
+        return handle;
+    }
+
+    /**
+     * Looks up a retrieve by its ID, by default the RetrieveHandle payload or the RetrieveID inbound property
+     */
+    private RetrieveHandle findRetrieve(String retrieveId, MuleMessage muleMessage) throws IOException {
+        String id = retrieveId;
+        if (id == null || id.isEmpty()) {
+            Object payload = muleMessage.getPayload();
+            id = payload instanceof RetrieveHandle ? ((RetrieveHandle)payload).getId() : getProperty(RetrieveHandle.RETRIEVE_ID, muleMessage);
+        }
+        RetrieveHandle handle = getRetrieves().get(id);
+        if (handle == null) throw new IOException("Unknown retrieve " + id + ", it may have finished longer ago than the Async Retrieve Retention");
+        return handle;
+    }
+
+    @Processor(friendlyName = "Retrieve Status")
+    @Summary("Returns the State of an async retrieve, its sub-operation counts so far, and its result once it has finished")
+    public Map<String,Object> retrieveStatus(@Optional @Summary("Defaults to the RetrieveHandle payload or the RetrieveID inbound property") String retrieveId,
+            MuleMessage muleMessage) throws IOException {
+        return findRetrieve(retrieveId, muleMessage).getStatus();
+    }
+
+    @Processor(friendlyName = "Await Retrieve")
+    @Summary("Waits for an async retrieve to finish and returns its status. Returns the RUNNING status if the timeout passes first.")
+    public Map<String,Object> awaitRetrieve(@Optional @Summary("Defaults to the RetrieveHandle payload or the RetrieveID inbound property") String retrieveId,
+            @Default("0") @Summary("Duration in milliseconds (0 is infinite)") long timeout,
+            MuleMessage muleMessage) throws IOException, InterruptedException {
+        RetrieveHandle handle = findRetrieve(retrieveId, muleMessage);
+        try {
+            if (timeout > 0) handle.getFuture().get(timeout, TimeUnit.MILLISECONDS);
+            else handle.getFuture().get();
+        } catch (TimeoutException | ExecutionException e) {
+            // Reported in the State of the status
+        }
+        Map<String,Object> status = handle.getStatus();
+        muleMessage.addProperties(status, PropertyScope.INBOUND);
+        return status;
+    }
+
+    @Processor(friendlyName = "Cancel Retrieve")
+    @Summary("Sends a C-CANCEL for an async retrieve. It finishes as CANCELED once the remote Application Entity responds.")
+    public Map<String,Object> cancelRetrieve(@Optional @Summary("Defaults to the RetrieveHandle payload or the RetrieveID inbound property") String retrieveId,
+            MuleMessage muleMessage) throws IOException {
+        RetrieveHandle handle = findRetrieve(retrieveId, muleMessage);
+        handle.cancel();
+        return handle.getStatus();
+    }
+
     @Processor(friendlyName = "Store SCU")
     @Summary("Performs C-STORE with a remote Application Entity.")
     public List<Map<String,Object>> storeScu(
@@ -214,18 +804,161 @@ public class DicomConnector {
         if (tsuid == null) tsuid = data.getString(Tag.TransferSyntaxUID);
         if (tsuid == null) throw new IOException("Missing TransferSyntaxUID from inbound or outbound properties");
         
-        MuleStoreSCU scu = new MuleStoreSCU(config, cuid, tsuid, aetName, hostname, port, cancelAfter, userName, userPassword, userResponseRequested);
-    	try {
-    		scu.open();
-    		handler = scu.cstore(iuid, data);
-    	} finally {
-    		scu.close();
-    	}
+        final String storeIuid = iuid;
+        handler = cstore(aetName, hostname, port, userName, userPassword, userResponseRequested, cancelAfter, cuid, tsuid,
+                scu -> scu.cstore(storeIuid, data));
         if (handler == null) return new ArrayList<>();
         muleMessage.addProperties(handler.getResultStatus(), PropertyScope.INBOUND);
         return handler.getResultData();
     }
 
+    @Processor(friendlyName = "Store SCU File")
+    @Summary("Performs C-STORE of a DICOM file with a remote Application Entity. The dataset is streamed from disk without being parsed when the remote accepts the file's Transfer Syntax.")
+    public List<Map<String,Object>> storeScuFile(
+    		@Placement(group = "Remote Connection") @FriendlyName("AE Title") @Summary("Application Entity Title") String aetName,
+    		@Placement(group = "Remote Connection") @Default("0.0.0.0") String hostname,
+    		@Placement(group = "Remote Connection") @Default("104") int port,
+            @Placement(group = "Remote Connection") @Optional String userName,
+            @Placement(group = "Remote Connection") @Optional @Password String userPassword,
+            @Placement(group = "Remote Connection") @Default("true") @Summary("Require positive response from Username/Password Identity") boolean userResponseRequested,
+    		@Placement(group = "Timings") @Default("0") @Summary("Duration in milliseconds (0 is infinite)") int cancelAfter,
+    		@Summary("Full path of the DICOM file") String fileName,
+    		MuleMessage muleMessage) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        File file = new File(fileName);
+        Attributes fmi;
+        long offset;
+        try (DicomInputStream dis = new DicomInputStream(file)) {
+            fmi = dis.getFileMetaInformation();
+            offset = dis.getPosition();
+        }
+        if (fmi == null) throw new IOException("Missing File Meta Information in " + fileName);
+        String iuid = fmi.getString(Tag.MediaStorageSOPInstanceUID);
+        String cuid = fmi.getString(Tag.MediaStorageSOPClassUID);
+        String tsuid = fmi.getString(Tag.TransferSyntaxUID);
+        if (tsuid == null) throw new IOException("Missing TransferSyntaxUID from File Meta Information in " + fileName);
+        MuleDimseRSPHandler handler = cstore(aetName, hostname, port, userName, userPassword, userResponseRequested, cancelAfter, cuid, tsuid,
+                scu -> scu.cstore(iuid, file, offset));
+        if (handler == null) return new ArrayList<>();
+        muleMessage.addProperties(handler.getResultStatus(), PropertyScope.INBOUND);
+        return handler.getResultData();
+    }
+
+    /**
+     * Runs a C-STORE on a pooled association when pooling is enabled, otherwise on a new one
+     */
+    private MuleDimseRSPHandler cstore(String aetName, String hostname, int port, String userName, String userPassword, boolean userResponseRequested,
+            int cancelAfter, String cuid, String tsuid, MuleStoreSCU.StoreCall operation) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        MuleDimseRSPHandler handler;
+        SCURuntime runtime = getScuRuntime();
+        AssociationPool pool = getStorePool();
+        if (pool != null) {
+            AssociationPool.Key key = new AssociationPool.Key(aetName, hostname, port, cuid, tsuid, userName, userPassword, userResponseRequested);
+            MuleStoreSCU scu = pool.borrow(key, () -> new MuleStoreSCU(runtime, cuid, tsuid, aetName, hostname, port, cancelAfter, userName, userPassword, userResponseRequested));
+            boolean reusable = false;
+            try {
+                scu.setCancelAfter(cancelAfter);
+                handler = operation.cstore(scu);
+                scu.waitForOutstandingRSP();
+                reusable = true;
+            } finally {
+                pool.giveBack(key, scu, reusable);
+            }
+        } else {
+            MuleStoreSCU scu = new MuleStoreSCU(runtime, cuid, tsuid, aetName, hostname, port, cancelAfter, userName, userPassword, userResponseRequested);
+            try {
+                scu.open();
+                handler = operation.cstore(scu);
+            } finally {
+                scu.close();
+            }
+        }
+        return handler;
+    }
+
+    @Processor(friendlyName = "Store SCU Batch")
+    @Summary("Performs C-STORE of many instances over one association. Payload is a collection, iterator or array of org.dcm4che3.data.Attributes or file names. Returns a List<Map<String,Object>> with the status of each instance.")
+    public List<Map<String,Object>> storeScuBatch(
+    		@Placement(group = "Remote Connection") @FriendlyName("AE Title") @Summary("Application Entity Title") String aetName,
+    		@Placement(group = "Remote Connection") @Default("0.0.0.0") String hostname,
+    		@Placement(group = "Remote Connection") @Default("104") int port,
+            @Placement(group = "Remote Connection") @Optional String userName,
+            @Placement(group = "Remote Connection") @Optional @Password String userPassword,
+            @Placement(group = "Remote Connection") @Default("true") @Summary("Require positive response from Username/Password Identity") boolean userResponseRequested,
+            @Placement(group = "Presentation Context") @Default("16") @Summary("Max outstanding C-STORE operations on the association (0 is unlimited)") int maxOpsInvoked,
+    		MuleMessage muleMessage) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        Iterator<?> elements = toIterator(muleMessage.getPayload());
+        MuleBatchStoreSCU scu = new MuleBatchStoreSCU(getScuRuntime(), aetName, hostname, port, maxOpsInvoked,
+                userName, userPassword, userResponseRequested, getProperty("TransferSyntaxUID", muleMessage));
+        List<MuleBatchStoreSCU.Item> items = new ArrayList<>();
+        while (elements.hasNext()) items.add(scu.toItem(elements.next()));
+        List<Map<String,Object>> results = new ArrayList<>(items.size());
+        if (!items.isEmpty()) {
+            scu.addPresentationContexts(items);
+            try {
+                scu.open();
+                for (MuleBatchStoreSCU.Item item : items) {
+                    if (!scu.isOpen()) break;
+                    try {
+                        scu.cstore(item);
+                    } catch (IOException e) {
+                        // The association is gone, instances not yet sent are reported as NotSet
+                        log.warn("Batch C-STORE to {} stopped: {}", aetName, e.getMessage());
+                        break;
+                    }
+                }
+            } finally {
+                scu.close();
+            }
+            for (MuleBatchStoreSCU.Item item : items) results.add(item.getResult());
+        }
+        muleMessage.addProperties(MuleBatchStoreSCU.summarize(items), PropertyScope.INBOUND);
+        return results;
+    }
+
+    private static Iterator<?> toIterator(Object payload) throws IOException {
+        if (payload instanceof Iterable<?>) return ((Iterable<?>)payload).iterator();
+        if (payload instanceof Iterator<?>) return (Iterator<?>)payload;
+        if (payload instanceof Object[]) return Arrays.asList((Object[])payload).iterator();
+        if (payload instanceof Attributes || payload instanceof String) return Collections.singletonList(payload).iterator();
+        throw new IOException("Payload must be a collection, iterator or array of org.dcm4che3.data.Attributes or file names");
+    }
+
+    @Processor(friendlyName = "Store SCU Pool Statistics")
+    @Summary("Returns hit, miss and eviction counts of the Store SCU association pool.")
+    public Map<String,Object> storePoolStatistics() {
+        AssociationPool pool = getStorePool();
+        if (pool == null) return new HashMap<>();
+        return pool.getStatistics();
+    }
+
+    @Processor(friendlyName = "Metrics Statistics")
+    @Summary("Returns latency percentiles, byte and instance counts, and failures by status for each remote AE")
+    public Map<String,Object> metricsStatistics(@Default("false") @Summary("Clears the metrics after reading them") boolean reset) {
+        ConnectorMetrics connectorMetrics = getMetrics();
+        if (connectorMetrics == null) return new HashMap<>();
+        Map<String,Object> stats = connectorMetrics.getStatistics();
+        if (reset) connectorMetrics.reset();
+        return stats;
+    }
+
+    @Processor(friendlyName = "Trace Dump")
+    @Summary("Returns the timelines of the most recent traced associations, oldest first")
+    public List<String> traceDump(
+            @Optional @Summary("Only associations with this remote AE") String remoteAetName,
+            @Default("0") @Summary("Most recent traces returned, 0 returns all that are buffered") int limit) {
+        TraceRecorder recorder = getTracer();
+        if (recorder == null) return new ArrayList<>();
+        return recorder.dump(remoteAetName, limit);
+    }
+
+    @Processor(friendlyName = "Memory Budget Statistics")
+    @Summary("Returns Limit, Used and Peak bytes of received instances in flight, and the number of Spills to disk")
+    public Map<String,Object> memoryBudgetStatistics() {
+        InFlightLimiter budget = getMemoryBudget();
+        if (budget == null) return new HashMap<>();
+        return budget.getStatistics();
+    }
+
     private String getProperty(String name, MuleMessage muleMessage) {
         String value = muleMessage.getInboundProperty(name);
         if (value == null || value.isEmpty()) value = muleMessage.getOutboundProperty(name);
@@ -269,25 +1002,77 @@ public class DicomConnector {
         }
 
         Attributes fmi = StoreUtils.createFileMetaInformation(iuid, cuid, tsuid, icuid, ivn, aet);
-        try (OutputStream output = Files.newOutputStream(file, StandardOpenOption.CREATE)) {
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 65536)) {
         	StoreUtils.writeTo(output,  data, fmi);
         }
+        if (config.getDurability() != Durability.NONE) StoreUtils.sync(file);
         return file.toString();
     }
     
     @Processor(friendlyName = "Read File")
     @Summary("Reads a DICOM file as org.dcm4che3.data.Attributes")
-    public Attributes readFile(String fileName, MuleMessage muleMessage) throws IOException {
-    	File file = new File(fileName);
-    	try (DicomInputStream dis = new DicomInputStream(file)) {
-    		dis.setIncludeBulkData(IncludeBulkData.URI);
-    		Attributes fmi = dis.getFileMetaInformation();
-    		Map<String, Object> properties = AttribUtils.attributesToMap(fmi);
-    	    if (properties.containsKey(SOURCE_AET)) properties.replace(SOURCE_AET, config.getAetName());
-    	    else properties.put(SOURCE_AET, config.getAetName());
-            muleMessage.addProperties(properties, PropertyScope.INBOUND);
-    		return dis.readDataset();
-    	}
+    public Attributes readFile(String fileName,
+    		@Optional @Summary("Comma separated tags to read, blank uses the configuration's. Reading stops after the highest one.") String includeTags,
+    		@Optional @Summary("Comma separated tags to drop, blank uses the configuration's") String excludeTags,
+    		@Default("FULL") @Summary("HEADER stops before the Stop Tag, MAPPED parses a memory-mapped file, LAZY_BULK adds a PixelDataHandle property") ReadMode readMode,
+    		@Optional @Summary("HEADER mode reads the tags before this one, blank is PixelData") String stopTag,
+    		MuleMessage muleMessage) throws IOException {
+    	DicomFileReader reader = new DicomFileReader(config.getAetName(), readMode, stopTag, getTagFilter(includeTags, excludeTags));
+    	DicomFileReader.Result result = reader.read(new File(fileName));
+        muleMessage.addProperties(result.properties, PropertyScope.INBOUND);
+    	return result.data;
+    }
+
+    @Processor(friendlyName = "Read Files")
+    @Summary("Reads many DICOM files in parallel. Returns an Iterator of maps with FileName, Payload and InboundProperties, or Error if a file couldn't be read. Use with For Each.")
+    public Iterator<?> readFiles(
+    		@Placement(group = "Files") @Optional @Summary("Directory to read, blank reads the file names in the payload") String directory,
+    		@Placement(group = "Files") @Optional @Summary("Glob matched against paths relative to the directory, e.g. **/*.dcm. Blank matches all.") String glob,
+    		@Placement(group = "Files") @Default("false") @Summary("Include subdirectories") boolean recursive,
+    		@Placement(group = "Parsing") @Optional @Summary("Comma separated tags to read, blank uses the configuration's. Reading stops after the highest one.") String includeTags,
+    		@Placement(group = "Parsing") @Optional @Summary("Comma separated tags to drop, blank uses the configuration's") String excludeTags,
+    		@Placement(group = "Parsing") @Default("FULL") @Summary("HEADER stops before the Stop Tag, MAPPED parses memory-mapped files, LAZY_BULK adds a PixelDataHandle property") ReadMode readMode,
+    		@Placement(group = "Parsing") @Optional @Summary("HEADER mode reads the tags before this one, blank is PixelData") String stopTag,
+    		@Placement(group = "Results") @Default("false") @Summary("Return results in file order, otherwise as each file is parsed") boolean preserveOrder,
+    		@Placement(group = "Results") @Default("0") @Summary("Group results into lists of this many (0 returns each result on its own)") int batchSize,
+    		@Placement(group = "Results") @Default("0") @Summary("Files parsed ahead of the flow (0 is twice the parallelism)") int prefetch,
+    		MuleMessage muleMessage) throws IOException {
+        Iterator<String> fileNames;
+        if (directory != null && !directory.isEmpty()) {
+            fileNames = ParallelFileReader.list(directory, glob, recursive).iterator();
+        } else {
+            List<String> names = new ArrayList<>();
+            Iterator<?> elements = toIterator(muleMessage.getPayload());
+            while (elements.hasNext()) {
+                Object element = elements.next();
+                if (!(element instanceof String)) throw new IOException("Payload must be a collection, iterator or array of file names");
+                names.add((String)element);
+            }
+            fileNames = names.iterator();
+        }
+        ForkJoinPool pool = getReadPool();
+        DicomFileReader reader = new DicomFileReader(config.getAetName(), readMode, stopTag, getTagFilter(includeTags, excludeTags));
+        ParallelFileReader files = new ParallelFileReader(reader, pool, prefetch > 0 ? prefetch : pool.getParallelism() * 2, preserveOrder);
+        Iterator<Map<String,Object>> results = files.read(fileNames);
+        return batchSize > 0 ? ParallelFileReader.batches(results, batchSize) : results;
+    }
+
+    @Processor(friendlyName = "Read Frame")
+    @Summary("Reads one frame of PixelData from the file an org.dcm4che3.data.Attributes payload was read from")
+    public byte[] readFrame(@Default("0") @Summary("First frame is 0") int frameIndex, MuleMessage muleMessage) throws IOException {
+        Object payload = muleMessage.getPayload();
+        if (!(payload instanceof Attributes)) throw new IOException(PAYLOAD_ERROR);
+        PixelDataHandle handle = PixelDataHandle.of((Attributes)payload);
+        if (handle == null) throw new IOException("PixelData isn't bulk data in a file");
+        return handle.readFrame(frameIndex);
+    }
+
+    @Processor(friendlyName = "Attributes To Map")
+    @Summary("Returns a read-only Map<String,Object> view of the org.dcm4che3.data.Attributes payload. Values are decoded only when read.")
+    public Map<String,Object> attributesToMap(MuleMessage muleMessage) throws IOException {
+        Object payload = muleMessage.getPayload();
+        if (!(payload instanceof Attributes)) throw new IOException(PAYLOAD_ERROR);
+        return AttribUtils.attributesView((Attributes)payload);
     }
 
     @Processor(friendlyName = "Set Tags")
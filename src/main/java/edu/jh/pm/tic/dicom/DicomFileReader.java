@@ -0,0 +1,99 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+
+import edu.jh.pm.tic.dicom.models.ReadMode;
+
+/**
+ * Reads DICOM files the way Read File does. Bulk data is always left in the file as BulkData URIs.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class DicomFileReader {
+    static final String SOURCE_AET = "SourceApplicationEntityTitle";
+    static final String PIXEL_DATA_HANDLE = "PixelDataHandle";
+    private final String aetName;
+    private final ReadMode mode;
+    private final TagFilter tagFilter;
+    // Last tag read, -1 reads everything
+    private final int stopTag;
+
+    /**
+     * @param aetName Put in the SourceApplicationEntityTitle property
+     * @param mode Defaults to FULL
+     * @param stopTag HEADER mode stops before this tag, blank is PixelData
+     * @param tagFilter Tags kept, null keeps all
+     */
+    DicomFileReader(String aetName, ReadMode mode, String stopTag, TagFilter tagFilter) {
+        this.aetName = aetName;
+        this.mode = mode != null ? mode : ReadMode.FULL;
+        this.tagFilter = tagFilter;
+        int stop = tagFilter != null ? tagFilter.getStopTag() : -1;
+        if (this.mode == ReadMode.HEADER) {
+            int header = (stopTag == null || stopTag.trim().isEmpty() ? Tag.PixelData : TagNames.tagOf(stopTag.trim())) - 1;
+            if (stop == -1 || Integer.compareUnsigned(header, stop) < 0) stop = header;
+        }
+        this.stopTag = stop;
+    }
+
+    static final class Result {
+        final Attributes data;
+        final Map<String, Object> properties;
+
+        Result(Attributes data, Map<String, Object> properties) {
+            this.data = data;
+            this.properties = properties;
+        }
+    }
+
+    Result read(File file) throws IOException {
+        if (mode == ReadMode.MAPPED && file.length() <= Integer.MAX_VALUE) return readMapped(file);
+        try (DicomInputStream dis = new DicomInputStream(file)) {
+            return read(dis);
+        }
+    }
+
+    /**
+     * Parses from the page cache without copying through a stream buffer. The mapping is
+     * released once it's unreachable; bulk data stays in the file as URIs.
+     */
+    private Result readMapped(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try (DicomInputStream dis = new DicomInputStream(new MappedInputStream(buffer))) {
+            dis.setURI(file.toURI().toString());
+            return read(dis);
+        }
+    }
+
+    private Result read(DicomInputStream dis) throws IOException {
+        dis.setIncludeBulkData(IncludeBulkData.URI);
+        Attributes fmi = dis.readFileMetaInformation();
+        Map<String, Object> properties = fmi != null ? AttribUtils.attributesToMap(fmi) : new HashMap<>();
+        properties.put(SOURCE_AET, aetName);
+        Attributes data = TagFilter.read(dis, stopTag);
+        if (tagFilter != null) data = tagFilter.apply(data);
+        if (mode == ReadMode.LAZY_BULK) {
+            PixelDataHandle handle = PixelDataHandle.of(data);
+            if (handle != null) properties.put(PIXEL_DATA_HANDLE, handle);
+        }
+        return new Result(data, properties);
+    }
+}
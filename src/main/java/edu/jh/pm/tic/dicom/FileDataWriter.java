@@ -0,0 +1,52 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.dcm4che3.net.DataWriter;
+import org.dcm4che3.net.PDVOutputStream;
+
+/**
+ * Streams the dataset of a DICOM file onto an association without parsing it.
+ * Only valid when the association's Transfer Syntax is the file's Transfer Syntax.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class FileDataWriter implements DataWriter {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+    private final File file;
+    private final long offset;
+
+    /**
+     * @param file DICOM file
+     * @param offset Position of the dataset, just after the File Meta Information
+     */
+    public FileDataWriter(File file, long offset) {
+        this.file = file;
+        this.offset = offset;
+    }
+
+    @Override
+    public void writeTo(PDVOutputStream out, String tsuid) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            long size = channel.size();
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read < 0) break;
+                out.write(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomOutputStream;
+
+/**
+ * Caches successful C-FIND results for a time to live, evicting the least recently used entries past maxEntries.
+ * Result lists and status are copied going in and out. Rows are read-only views and shared, so flows can't change what's cached.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class FindCache {
+    private final long ttl;
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+    private long invalidations = 0;
+
+    /**
+     * @param ttl Milliseconds results are kept
+     * @param maxEntries Max cached queries
+     */
+    public FindCache(long ttl, int maxEntries) {
+        this.ttl = ttl;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Identifies a query by its remote, information model and encoded keys
+     */
+    static final class Key {
+        private final String aetName;
+        private final String hostname;
+        private final int port;
+        private final String userName;
+        // Callers with the same user name but a different password must not share results
+        private final String userPassword;
+        private final String cuid;
+        private final int maxResults;
+        private final String projection;
+        private final byte[] keys;
+        private final int hash;
+
+        /**
+         * @param projection Identifies the tag filter applied to results, null for none
+         */
+        Key(String aetName, String hostname, int port, String userName, String userPassword, String cuid, int maxResults, String projection, Attributes keys) throws IOException {
+            this.aetName = aetName;
+            this.hostname = hostname;
+            this.port = port;
+            this.userName = userName;
+            this.userPassword = userPassword;
+            this.cuid = cuid;
+            this.maxResults = maxResults;
+            this.projection = projection;
+            // Attributes are kept sorted by tag, so equal keys encode to equal bytes
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            try (DicomOutputStream dos = new DicomOutputStream(out, UID.ExplicitVRLittleEndian)) {
+                dos.writeDataset(null, keys);
+            }
+            this.keys = out.toByteArray();
+            this.hash = Objects.hash(aetName, hostname, port, userName, cuid, maxResults, projection) * 31 + Arrays.hashCode(this.keys);
+        }
+
+        String getAetName() { return aetName; }
+
+        @Override
+        public int hashCode() { return hash; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key)o;
+            return hash == k.hash && port == k.port && maxResults == k.maxResults && Objects.equals(aetName, k.aetName)
+                    && Objects.equals(hostname, k.hostname) && Objects.equals(userName, k.userName) && Objects.equals(userPassword, k.userPassword)
+                    && Objects.equals(cuid, k.cuid) && Objects.equals(projection, k.projection) && Arrays.equals(keys, k.keys);
+        }
+    }
+
+    /**
+     * Result rows and the final response's status properties
+     */
+    static final class Result {
+        private final List<Map<String,Object>> rows;
+        private final Map<String,Object> status;
+
+        Result(List<Map<String,Object>> rows, Map<String,Object> status) {
+            this.rows = rows;
+            this.status = status;
+        }
+
+        List<Map<String,Object>> getRows() { return rows; }
+        Map<String,Object> getStatus() { return status; }
+
+        Result copy() {
+            return new Result(copyList(rows), copyMap(status));
+        }
+    }
+
+    private static final class Entry {
+        private final Result result;
+        private final long expires;
+
+        Entry(Result result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @return A copy of the cached result, or null
+     */
+    public Result get(Key key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                expirations++;
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        return entry.result.copy();
+    }
+
+    public void put(Key key, Result result) {
+        Entry entry = new Entry(result.copy(), System.currentTimeMillis() + ttl);
+        synchronized (this) {
+            entries.put(key, entry);
+            Iterator<Entry> it = entries.values().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Drops cached results for one remote Application Entity, or every result when aetName is null
+     * @return Entries dropped
+     */
+    public synchronized int invalidate(String aetName) {
+        int count = 0;
+        Iterator<Key> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            Key key = it.next();
+            if (aetName == null || aetName.equals(key.getAetName())) {
+                it.remove();
+                count++;
+            }
+        }
+        invalidations += count;
+        return count;
+    }
+
+    public synchronized Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<>();
+        stats.put("Hits", hits);
+        stats.put("Misses", misses);
+        stats.put("Evictions", evictions);
+        stats.put("Expirations", expirations);
+        stats.put("Invalidations", invalidations);
+        stats.put("Size", entries.size());
+        long requests = hits + misses;
+        stats.put("HitRatio", requests == 0 ? 0.0 : (double)hits / requests);
+        return stats;
+    }
+
+    private static Map<String,Object> copyMap(Map<String,Object> map) {
+        Map<String,Object> copy = new HashMap<>(map.size() * 2);
+        for (Map.Entry<String,Object> e : map.entrySet()) copy.put(e.getKey(), copyValue(e.getValue()));
+        return copy;
+    }
+
+    private static List<Map<String,Object>> copyList(List<Map<String,Object>> list) {
+        List<Map<String,Object>> copy = new ArrayList<>(list.size());
+        // Rows are read-only AttributesMap views, so they're shared and a hit returns the same kind of row as a miss
+        for (Map<String,Object> map : list) copy.add(map instanceof AttributesMap ? map : copyMap(map));
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value) {
+        // Everything else attributesToMap produces is immutable
+        if (value instanceof List) return copyList((List<Map<String,Object>>)value);
+        if (value instanceof Map) return copyMap((Map<String,Object>)value);
+        return value;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dcm4che3.net.IncompatibleConnectionException;
+
+/**
+ * Sends one C-FIND for identical queries that arrive while it's in flight. Later callers wait for
+ * the first one's result and each receive their own copy.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class FindCoalescer {
+    private final ConcurrentHashMap<FindCache.Key, CompletableFuture<FindCache.Result>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    interface Query {
+        FindCache.Result execute() throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException;
+    }
+
+    public FindCache.Result execute(FindCache.Key key, Query query) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        CompletableFuture<FindCache.Result> mine = new CompletableFuture<>();
+        CompletableFuture<FindCache.Result> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return existing.get().copy();
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            }
+        }
+        executed.incrementAndGet();
+        try {
+            FindCache.Result result = query.execute();
+            // Waiting callers copy a snapshot, since this caller's flow may change the original
+            mine.complete(result.copy());
+            return result;
+        } catch (IOException | InterruptedException | IncompatibleConnectionException | GeneralSecurityException | RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Wraps the first caller's failure, so each waiting caller gets its own stack trace
+     */
+    private static IOException rethrow(Throwable cause) throws IncompatibleConnectionException, GeneralSecurityException {
+        if (cause instanceof IncompatibleConnectionException) throw new IncompatibleConnectionException(cause.getMessage());
+        if (cause instanceof GeneralSecurityException) throw new GeneralSecurityException(cause.getMessage(), cause);
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        if (cause instanceof Error) throw (Error)cause;
+        return new IOException(cause.getMessage(), cause);
+    }
+
+    public Map<String,Object> getStatistics() {
+        Map<String,Object> stats = new HashMap<>();
+        stats.put("Executed", executed.get());
+        stats.put("Coalesced", coalesced.get());
+        stats.put("InFlight", inFlight.size());
+        return stats;
+    }
+}
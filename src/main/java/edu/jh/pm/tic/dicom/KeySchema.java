@@ -0,0 +1,126 @@
+package edu.jh.pm.tic.dicom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.TagUtils;
+
+/**
+ * The tags and VRs of a set of map keys, resolved once and reused for every map with the same keys.
+ * Flows that send the same shape of query each time only pay for parsing the key names once.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public final class KeySchema {
+    private static final String UNKNOWN = "Unknown";
+    private static final int MAX_CACHED = 256;
+    private static final ConcurrentHashMap<Set<String>, KeySchema> CACHE = new ConcurrentHashMap<>();
+    private static final byte PRIVATE_CREATOR = 0;
+    private static final byte PUBLIC = 1;
+    private static final byte NAMED_PRIVATE = 2;
+    private static final byte PRIVATE = 3;
+    private final String[] names;
+    private final int[] tags;
+    private final VR[] vrs;
+    private final String[] privateCreators;
+    private final byte[] kinds;
+
+    private KeySchema(List<String> names, List<TagNames.Name> resolved, List<Byte> kinds) {
+        int size = names.size();
+        this.names = names.toArray(new String[size]);
+        this.tags = new int[size];
+        this.vrs = new VR[size];
+        this.privateCreators = new String[size];
+        this.kinds = new byte[size];
+        for (int i = 0; i < size; i++) {
+            TagNames.Name name = resolved.get(i);
+            tags[i] = name.getTag();
+            privateCreators[i] = name.getPrivateCreator();
+            this.kinds[i] = kinds.get(i);
+            if (this.kinds[i] == PUBLIC) vrs[i] = ElementDictionary.vrOf(tags[i], null);
+        }
+    }
+
+    /**
+     * Resolves key names into a schema
+     * @throws IllegalArgumentException A name isn't a tag or a known keyword
+     */
+    public static KeySchema compile(Collection<String> keyNames) {
+        // Private Creators are set first, so the private tags they reserve can find them
+        List<String> names = new ArrayList<>(keyNames.size());
+        List<TagNames.Name> resolved = new ArrayList<>(keyNames.size());
+        List<Byte> kinds = new ArrayList<>(keyNames.size());
+        for (byte kind = PRIVATE_CREATOR; kind <= PRIVATE; kind++) {
+            for (String keyName : keyNames) {
+                TagNames.Name name = TagNames.parse(keyName);
+                if (kindOf(name) != kind) continue;
+                names.add(keyName);
+                resolved.add(name);
+                kinds.add(kind);
+            }
+        }
+        return new KeySchema(names, resolved, kinds);
+    }
+
+    /**
+     * Returns the cached schema for a set of key names, compiling it the first time
+     */
+    public static KeySchema forKeys(Set<String> keyNames) {
+        KeySchema schema = CACHE.get(keyNames);
+        if (schema != null) return schema;
+        schema = compile(keyNames);
+        if (CACHE.size() < MAX_CACHED) CACHE.putIfAbsent(new HashSet<>(keyNames), schema);
+        return schema;
+    }
+
+    private static byte kindOf(TagNames.Name name) {
+        int tag = name.getTag();
+        if (TagUtils.isPrivateCreator(tag)) return PRIVATE_CREATOR;
+        if (!TagUtils.isPrivateTag(tag)) return PUBLIC;
+        return name.getPrivateCreator() != null ? NAMED_PRIVATE : PRIVATE;
+    }
+
+    public int size() { return names.length; }
+
+    public Attributes toKeys(Map<String, Object> values) {
+        Attributes keys = new Attributes(names.length);
+        addKeys(keys, values);
+        return keys;
+    }
+
+    /**
+     * Sets the value of each of the schema's keys from the map
+     */
+    public void addKeys(Attributes keys, Map<String, Object> values) {
+        for (int i = 0; i < names.length; i++) {
+            Object value = values.get(names[i]);
+            switch (kinds[i]) {
+                case PRIVATE_CREATOR:
+                    keys.setString(tags[i], VR.LO, (String)value);
+                    break;
+                case PUBLIC:
+                    keys.setValue(tags[i], vrs[i], value);
+                    break;
+                case NAMED_PRIVATE:
+                    keys.setString(privateCreators[i], tags[i], VR.LO, (String)value);
+                    break;
+                default:
+                    String privateCreator = keys.getString(TagUtils.creatorTagOf(tags[i]), UNKNOWN);
+                    keys.setString(privateCreator, tags[i], VR.LO, (String)value);
+                    break;
+            }
+        }
+    }
+}
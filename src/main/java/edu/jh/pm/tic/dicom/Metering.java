@@ -0,0 +1,166 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.DataWriter;
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.net.PDVOutputStream;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+
+import edu.jh.pm.tic.dicom.metrics.Operation;
+import edu.jh.pm.tic.dicom.metrics.RemoteMetrics;
+import edu.jh.pm.tic.dicom.trace.AssociationTrace;
+import edu.jh.pm.tic.dicom.trace.Phase;
+
+/**
+ * Records association and C-STORE metrics and traces for the SCUs. Every method does nothing extra
+ * when metrics is null and the association isn't traced.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+final class Metering {
+    private Metering() { }
+
+    /**
+     * Opens an association, timing the TCP connect and A-ASSOCIATE negotiation together
+     *
+     * @param trace Attached to the association once it's open, may be null
+     */
+    static Association connect(ApplicationEntity ae, Connection local, Connection remote, AAssociateRQ rq, RemoteMetrics metrics, AssociationTrace trace)
+            throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        if (metrics == null && trace == null) return open(ae, local, remote, rq);
+        long start = System.nanoTime();
+        if (trace != null) trace.add(Phase.CONNECT, 0, remote.getHostname() + ":" + remote.getPort());
+        try {
+            Association as = open(ae, local, remote, rq);
+            if (metrics != null) metrics.record(Operation.ASSOCIATE, System.nanoTime() - start);
+            if (trace != null) {
+                trace.add(Phase.ASSOCIATE_AC);
+                trace.attach(as);
+            }
+            return as;
+        } catch (IOException | InterruptedException | IncompatibleConnectionException | GeneralSecurityException | RuntimeException e) {
+            if (metrics != null) metrics.associationFailed();
+            if (trace != null) trace.complete(e.toString());
+            throw e;
+        }
+    }
+
+    /**
+     * Each association needs an SCU thread to read it, so a full SCU thread pool fails the connect
+     */
+    private static Association open(ApplicationEntity ae, Connection local, Connection remote, AAssociateRQ rq)
+            throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        try {
+            return ae.connect(local, remote, rq);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Unable to open an association to " + rq.getCalledAET() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Records a DIMSE request on a traced association
+     */
+    static void request(Association as, int msgId, String detail) {
+        AssociationTrace trace = AssociationTrace.of(as);
+        if (trace != null) trace.add(Phase.REQUEST, msgId, detail);
+    }
+
+    /**
+     * Call just before releasing an association, times until it's closed
+     */
+    static void releasing(Association as, RemoteMetrics metrics) {
+        AssociationTrace trace = AssociationTrace.of(as);
+        if (trace != null) trace.add(Phase.RELEASE);
+        if (metrics == null) return;
+        long start = System.nanoTime();
+        as.addAssociationListener(a -> metrics.record(Operation.RELEASE, System.nanoTime() - start));
+    }
+
+    /**
+     * Records the C-STORE request and when its first and last PDV are written on a traced association
+     */
+    static DataWriter tracing(Association as, int msgId, String iuid, DataWriter writer) {
+        AssociationTrace trace = AssociationTrace.of(as);
+        if (trace == null) return writer;
+        trace.add(Phase.REQUEST, msgId, "C-STORE " + iuid);
+        return trace.wrap(writer, msgId);
+    }
+
+    /**
+     * Counts the dataset bytes a C-STORE sends
+     */
+    static DataWriter counting(DataWriter writer, RemoteMetrics metrics) {
+        if (metrics == null) return writer;
+        return (out, tsuid) -> {
+            CountingPDVOutputStream counting = new CountingPDVOutputStream(out);
+            try {
+                writer.writeTo(counting, tsuid);
+            } finally {
+                metrics.addBytesOut(counting.count);
+            }
+        };
+    }
+
+    private static final class CountingPDVOutputStream extends PDVOutputStream {
+        private final PDVOutputStream out;
+        private long count = 0;
+
+        CountingPDVOutputStream(PDVOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void copyFrom(InputStream in, int len) throws IOException {
+            out.copyFrom(in, len);
+            count += len;
+        }
+
+        @Override
+        public void copyFrom(InputStream in) throws IOException {
+            out.copyFrom(new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) count++;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) count += read;
+                    return read;
+                }
+            });
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.DataWriter;
+import org.dcm4che3.net.DataWriterAdapter;
+import org.dcm4che3.net.DimseRSPHandler;
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.pdu.UserIdentityRQ;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jh.pm.tic.dicom.metrics.Operation;
+import edu.jh.pm.tic.dicom.metrics.RemoteMetrics;
+import edu.jh.pm.tic.dicom.trace.AssociationTrace;
+import edu.jh.pm.tic.dicom.trace.Phase;
+
+/**
+ * Sends many instances over one association, keeping up to maxOpsInvoked C-STOREs outstanding.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class MuleBatchStoreSCU {
+    private static final Logger log = LoggerFactory.getLogger(MuleBatchStoreSCU.class);
+    private static final List<String> NATIVE_TSUIDS = Arrays.asList(UID.ExplicitVRLittleEndian, UID.ImplicitVRLittleEndian, UID.ExplicitVRBigEndian);
+    private static final int MAX_PRESENTATION_CONTEXTS = 128;
+    private final ApplicationEntity ae;
+    private final Connection conn;
+    private final Connection remote = new Connection();
+    private final AAssociateRQ rq = new AAssociateRQ();
+    private final Semaphore window;
+    private final String defaultTsuid;
+    private final RemoteMetrics metrics;
+    private final SCURuntime runtime;
+    private Association as;
+
+    public MuleBatchStoreSCU(SCURuntime runtime, String remoteAetName, String remoteHostname, int remotePort, int maxOpsInvoked,
+            String userName, String userPassword, boolean userResponseRequested, String defaultTsuid) {
+        this.runtime = runtime;
+        this.ae = runtime.getApplicationEntity();
+        this.conn = runtime.getConnection(0, maxOpsInvoked);
+        this.window = new Semaphore(maxOpsInvoked > 0 ? maxOpsInvoked : Integer.MAX_VALUE);
+        this.defaultTsuid = defaultTsuid != null ? defaultTsuid : UID.ExplicitVRLittleEndian;
+        this.metrics = runtime.getMetrics(remoteAetName);
+        rq.setCalledAET(remoteAetName);
+        if (userName != null && !userName.isEmpty()) {
+            UserIdentityRQ identity = UserIdentityRQ.usernamePasscode(userName, userPassword.toCharArray(), userResponseRequested);
+            rq.setUserIdentityRQ(identity);
+        }
+        remote.setHostname(remoteHostname);
+        remote.setPort(remotePort);
+        remote.setHttpProxy(null);
+    }
+
+    /**
+     * Describes one instance of the batch. Files are only read when they are sent.
+     */
+    static final class Item {
+        private final String source;
+        private final Attributes data;
+        private final String cuid;
+        private final String iuid;
+        private final String tsuid;
+        private final long offset;
+        private final Map<String,Object> result = new HashMap<>();
+
+        private Item(String source, Attributes data, long offset, String cuid, String iuid, String tsuid) {
+            this.source = source;
+            this.data = data;
+            this.offset = offset;
+            this.cuid = cuid;
+            this.iuid = iuid;
+            this.tsuid = tsuid;
+            if (source != null) result.put("Source", source);
+            result.put("SOPClassUID", cuid);
+            result.put("SOPInstanceUID", iuid);
+            result.put("TransferSyntaxUID", tsuid);
+            setStatus(-1, null);
+        }
+
+        Map<String,Object> getResult() { return result; }
+
+        void setStatus(int status, String errorComment) {
+            result.put("Status", status);
+            result.put("StatusText", MuleDimseRSPHandler.getStatusText(status));
+            if (errorComment != null) result.put("ErrorComment", errorComment);
+        }
+    }
+
+    /**
+     * Converts an element of the payload (Attributes, file name, File or Path) into a batch item
+     */
+    public Item toItem(Object element) throws IOException {
+        if (element instanceof Attributes) {
+            Attributes data = (Attributes)element;
+            String tsuid = data.getString(Tag.TransferSyntaxUID, defaultTsuid);
+            return new Item(null, data, -1L, data.getString(Tag.SOPClassUID), data.getString(Tag.SOPInstanceUID), tsuid);
+        }
+        File file;
+        if (element instanceof File) file = (File)element;
+        else if (element instanceof Path) file = ((Path)element).toFile();
+        else if (element instanceof String) file = new File((String)element);
+        else throw new IOException("Batch elements must be org.dcm4che3.data.Attributes or file names, found " + (element == null ? "null" : element.getClass().getName()));
+        try (DicomInputStream dis = new DicomInputStream(file)) {
+            Attributes fmi = dis.getFileMetaInformation();
+            if (fmi != null) {
+                return new Item(file.getPath(), null, dis.getPosition(), fmi.getString(Tag.MediaStorageSOPClassUID), fmi.getString(Tag.MediaStorageSOPInstanceUID), fmi.getString(Tag.TransferSyntaxUID));
+            }
+            // No File Meta Information, so the dataset itself has to be read to identify it
+            Attributes data = dis.readDataset();
+            return new Item(file.getPath(), data, -1L, data.getString(Tag.SOPClassUID), data.getString(Tag.SOPInstanceUID), dis.getTransferSyntax());
+        }
+    }
+
+    /**
+     * Proposes a presentation context for every SOP Class and Transfer Syntax in the batch,
+     * plus the uncompressed syntaxes as fallbacks
+     */
+    public void addPresentationContexts(List<Item> items) {
+        Map<String, Set<String>> tsuidsByCuid = new HashMap<>();
+        for (Item item : items) {
+            if (item.cuid == null) continue;
+            Set<String> tsuids = tsuidsByCuid.computeIfAbsent(item.cuid, k -> new LinkedHashSet<>());
+            if (item.tsuid != null) tsuids.add(item.tsuid);
+        }
+        int pcid = 1;
+        for (Map.Entry<String, Set<String>> entry : tsuidsByCuid.entrySet()) {
+            Set<String> tsuids = new LinkedHashSet<>(entry.getValue());
+            if (tsuids.isEmpty() || NATIVE_TSUIDS.containsAll(tsuids)) {
+                tsuids.add(UID.ExplicitVRLittleEndian);
+                tsuids.add(UID.ImplicitVRLittleEndian);
+            }
+            for (String tsuid : tsuids) {
+                if (rq.getNumberOfPresentationContexts() >= MAX_PRESENTATION_CONTEXTS) {
+                    log.warn("Presentation Context has the maximum 128 entries. Cannot add {} {}", entry.getKey(), tsuid);
+                    return;
+                }
+                rq.addPresentationContext(new PresentationContext(pcid, entry.getKey(), tsuid));
+                pcid += 2;
+            }
+        }
+    }
+
+    public void open() throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        this.as = Metering.connect(this.ae, this.conn, this.remote, this.rq, metrics, runtime.startTrace("SCU Batch Store", rq.getCalledAET()));
+    }
+
+    public boolean isOpen() {
+        return this.as != null && this.as.isReadyForDataTransfer();
+    }
+
+    /**
+     * Starts the C-STORE of one item. Blocks while the window of outstanding operations is full.
+     */
+    public void cstore(Item item) throws IOException, InterruptedException {
+        String tsuid = selectTransferSyntax(item);
+        if (tsuid == null) {
+            item.setStatus(Status.SOPclassNotSupported, "No accepted presentation context for " + item.cuid + " " + item.tsuid);
+            return;
+        }
+        DataWriter writer;
+        if (item.data != null) {
+            writer = new DataWriterAdapter(item.data);
+        } else if (tsuid.equals(item.tsuid)) {
+            // Same Transfer Syntax as the file, so its bytes go out unparsed
+            writer = new FileDataWriter(new File(item.source), item.offset);
+        } else {
+            try (DicomInputStream dis = new DicomInputStream(new File(item.source))) {
+                writer = new DataWriterAdapter(dis.readDataset());
+            } catch (IOException e) {
+                item.setStatus(-1, e.getMessage());
+                return;
+            }
+        }
+        window.acquire();
+        ItemRSPHandler rspHandler = new ItemRSPHandler(as.nextMessageID(), item);
+        try {
+            DataWriter counted = Metering.counting(writer, metrics);
+            as.cstore(item.cuid, item.iuid, 0, Metering.tracing(as, rspHandler.getMessageID(), item.iuid, counted), tsuid, rspHandler);
+        } catch (IOException | RuntimeException e) {
+            rspHandler.finish(-1, e.getMessage());
+            throw e;
+        }
+    }
+
+    private String selectTransferSyntax(Item item) {
+        Set<String> accepted = as.getTransferSyntaxesFor(item.cuid);
+        if (accepted.isEmpty()) return null;
+        if (item.tsuid != null && accepted.contains(item.tsuid)) return item.tsuid;
+        // Datasets in an uncompressed syntax are re-encoded to whatever uncompressed syntax was accepted
+        if (item.tsuid == null || NATIVE_TSUIDS.contains(item.tsuid)) {
+            for (String tsuid : NATIVE_TSUIDS) {
+                if (accepted.contains(tsuid)) return tsuid;
+            }
+        }
+        return null;
+    }
+
+    public void close() throws InterruptedException {
+        if (this.as != null) {
+            if (this.as.isReadyForDataTransfer()) {
+                this.as.waitForOutstandingRSP();
+                try {
+                    Metering.releasing(this.as, metrics);
+                    this.as.release();
+                } catch (IOException ex) {
+                    if (log.isTraceEnabled()) log.trace("Ignored exception {}", ex.toString());
+                }
+            } else {
+                this.as.abort();
+            }
+            this.as = null;
+        }
+    }
+
+    /**
+     * Summarizes the results in the same NumberOf*Suboperations form C-MOVE and C-GET report
+     */
+    public static Map<String,Object> summarize(List<Item> items) {
+        int completed = 0;
+        int warning = 0;
+        int failed = 0;
+        for (Item item : items) {
+            int status = (int)item.result.get("Status");
+            if (status == Status.Success) completed++;
+            else if (isWarning(status)) warning++;
+            else failed++;
+        }
+        return summarize(completed, warning, failed);
+    }
+
+    /**
+     * Result status with the given sub-operation counts, none remaining
+     */
+    static Map<String,Object> summarize(int completed, int warning, int failed) {
+        int status = (failed == 0 && warning == 0) ? Status.Success : Status.OneOrMoreFailures;
+        Map<String,Object> summary = new HashMap<>();
+        summary.put("NumberOfCompletedSuboperations", completed);
+        summary.put("NumberOfWarningSuboperations", warning);
+        summary.put("NumberOfFailedSuboperations", failed);
+        summary.put("NumberOfRemainingSuboperations", 0);
+        summary.put("Status", status);
+        summary.put("StatusText", MuleDimseRSPHandler.getStatusText(status));
+        return summary;
+    }
+
+    private static boolean isWarning(int status) {
+        // Coercion of Data Elements, Elements Discarded and Data Set does not match SOP Class
+        return (status & 0xF000) == 0xB000;
+    }
+
+    private final class ItemRSPHandler extends DimseRSPHandler {
+        private final Item item;
+        private final long started = System.nanoTime();
+        private boolean finished = false;
+
+        ItemRSPHandler(int msgId, Item item) {
+            super(msgId);
+            this.item = item;
+        }
+
+        @Override
+        public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+            super.onDimseRSP(as, cmd, data);
+            int status = cmd.getInt(Tag.Status, -1);
+            AssociationTrace trace = AssociationTrace.of(as);
+            if (trace != null) trace.add(Phase.RESPONSE, getMessageID(), Integer.toHexString(status));
+            finish(status, cmd.getString(Tag.ErrorComment));
+        }
+
+        @Override
+        public void onClose(Association as) {
+            super.onClose(as);
+            finish(-1, "Association closed before the C-STORE response");
+        }
+
+        synchronized void finish(int status, String errorComment) {
+            if (finished) return;
+            finished = true;
+            if (metrics != null) {
+                metrics.record(Operation.C_STORE, System.nanoTime() - started);
+                metrics.recordStatus(status);
+            }
+            item.setStatus(status, errorComment);
+            window.release();
+        }
+    }
+}
@@ -1,16 +1,27 @@
 package edu.jh.pm.tic.dicom;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.DimseRSPHandler;
 import org.dcm4che3.net.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jh.pm.tic.dicom.metrics.Operation;
+import edu.jh.pm.tic.dicom.metrics.RemoteMetrics;
+import edu.jh.pm.tic.dicom.trace.AssociationTrace;
+import edu.jh.pm.tic.dicom.trace.Phase;
 
 /**
  * Copyright (c) 2022 The Johns Hopkins University
@@ -20,8 +31,28 @@ import org.dcm4che3.net.Status;
  *
  */
 class MuleDimseRSPHandler extends DimseRSPHandler {
+    private static final Logger log = LoggerFactory.getLogger(MuleDimseRSPHandler.class);
     private static final String STATUS_TEXT = "StatusText";
     private static final String MESSAGE_ID = "MessageID";
+    private static final int[] STATUS_CODES;
+    private static final String[] STATUS_NAMES;
+    static {
+        // Status names are looked up by binary search instead of reflecting on every response
+        Map<Integer,String> names = new TreeMap<>();
+        for (Field f : Status.class.getFields()) {
+            if (f.getType() != int.class || !Modifier.isStatic(f.getModifiers())) continue;
+            try {
+                names.putIfAbsent(f.getInt(null), f.getName());
+            } catch (IllegalArgumentException | IllegalAccessException ignore) { }
+        }
+        STATUS_CODES = new int[names.size()];
+        STATUS_NAMES = new String[names.size()];
+        int i = 0;
+        for (Map.Entry<Integer,String> entry : names.entrySet()) {
+            STATUS_CODES[i] = entry.getKey();
+            STATUS_NAMES[i++] = entry.getValue();
+        }
+    }
     private int status = -1;
     public int getStatus() { return status; }
     public void setStatus(int status) { this.status = status; }
@@ -36,9 +67,44 @@ class MuleDimseRSPHandler extends DimseRSPHandler {
     private final List<Map<String,Object>> resultData = new ArrayList<>();
     public List<Map<String,Object>> getResultData() { return resultData; }
 
+    private int maxResults = 0;
+    private int resultCount = 0;
+    private boolean canceled = false;
+    /**
+     * Sends a C-CANCEL once this many results have arrived, 0 is unlimited. Later results are dropped.
+     */
+    public void setMaxResults(int maxResults) { this.maxResults = maxResults; }
+
+    private TagFilter tagFilter = null;
+    /**
+     * Selects the tags kept in each result, null keeps all
+     */
+    public void setTagFilter(TagFilter tagFilter) { this.tagFilter = tagFilter; }
+
+    private RemoteMetrics metrics = null;
+    private Operation operation = null;
+    private long started = 0;
+    /**
+     * Times the operation from now until its final response, and counts a failed status. Metrics may be null.
+     */
+    public void startTimer(RemoteMetrics metrics, Operation operation) {
+        this.metrics = metrics;
+        this.operation = operation;
+        this.started = System.nanoTime();
+    }
+
+    private void stopTimer(int finalStatus) {
+        RemoteMetrics timed = metrics;
+        if (timed == null) return;
+        metrics = null;
+        timed.record(operation, System.nanoTime() - started);
+        timed.recordStatus(finalStatus);
+    }
+
     @Override
     public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
         super.onDimseRSP(as, cmd, data);
+        if (data == null && cmd != null && !cmd.isEmpty() && onProgress(as, cmd)) return;
         if (resultStatus.containsKey(MESSAGE_ID)) resultStatus.replace(MESSAGE_ID, this.getMessageID());
         else resultStatus.put(MESSAGE_ID, this.getMessageID());
         if (cmd != null && !cmd.isEmpty()) {
@@ -50,33 +116,77 @@ class MuleDimseRSPHandler extends DimseRSPHandler {
         		if (resultStatus.containsKey(entry.getKey())) resultStatus.replace(entry.getKey(), entry.getValue());
         		else resultStatus.put(entry.getKey(), entry.getValue());
         	}
+        	if (!Status.isPending(status)) {
+        	    stopTimer(status);
+        	    AssociationTrace trace = AssociationTrace.of(as);
+        	    if (trace != null) trace.add(Phase.RESPONSE, getMessageID(), Integer.toHexString(status));
+        	}
         }
         if (data != null && !data.isEmpty()) {
-        	Map<String,Object> dataMap = AttribUtils.attributesToMap(data);
-        	resultData.add(dataMap);
+            if (maxResults > 0 && resultCount >= maxResults) return;
+            resultCount++;
+            onResult(as, AttribUtils.attributesView(tagFilter != null ? tagFilter.apply(data) : data));
+            if (maxResults > 0 && resultCount == maxResults && Status.isPending(status)) cancelOnce(as);
+        }
+    }
+
+    @Override
+    public void onClose(Association as) {
+        super.onClose(as);
+        // Closed before the final response
+        stopTimer(-1);
+    }
+
+    /**
+     * Called for a response without a dataset before it's merged into the result status
+     * @return true when the response was fully handled and needn't be merged
+     */
+    protected boolean onProgress(Association as, Attributes cmd) {
+        return false;
+    }
+
+    /**
+     * Called for every result within maxResults
+     */
+    protected void onResult(Association as, Map<String,Object> result) {
+        resultData.add(result);
+    }
+
+    protected synchronized void cancelOnce(Association as) {
+        if (canceled) return;
+        canceled = true;
+        try {
+            cancel(as);
+        } catch (IOException e) {
+            log.warn("Unable to send C-CANCEL: {}", e.getMessage());
         }
     }
 
     public String getStatusText() {
+        return getStatusText(status);
+    }
+
+    public static String getStatusText(int status) {
         if (status < 0) return "NotSet";
-        String value = "Unknown";
-        for (Field f : Status.class.getFields()) {
-            try {
-                Object v = f.get(null);
-                if ((v instanceof Integer) && ((int)v == status)) {
-                    value = f.getName();
-                    break;
-                }
-            } catch (IllegalArgumentException | IllegalAccessException ignore) { }
-        }
+        int i = Arrays.binarySearch(STATUS_CODES, status);
+        if (i >= 0) return STATUS_NAMES[i];
         // By specification, statuses C000 through CFFF are considered Unable to Process
-        if (value.equals("Unknown") && status >= 0xC000 && status <= 0xCFFF) value = "UnableToProcess";
-        return value;
+        if (status >= 0xC000 && status <= 0xCFFF) return "UnableToProcess";
+        return "Unknown";
     }
     
     // C-GET sometimes incorrectly reports everything as failed. This is a hack to autocorrect.
     public void updateResults(int numberActualCompleted) {
-        if (resultStatus.isEmpty()) return;
+        int corrected = correctResults(resultStatus, numberActualCompleted);
+        if (corrected >= 0) status = corrected;
+    }
+
+    /**
+     * Corrects the counts and status of a C-GET result status from the number of files actually received
+     * @return The corrected status, or -1 when it's unchanged
+     */
+    static int correctResults(Map<String,Object> resultStatus, int numberActualCompleted) {
+        if (resultStatus.isEmpty()) return -1;
         int completed = (int)resultStatus.get("NumberOfCompletedSuboperations");
         int failed = (int)resultStatus.get("NumberOfFailedSuboperations");
         int remaining = (int)resultStatus.get("NumberOfRemainingSuboperations");
@@ -90,9 +200,10 @@ class MuleDimseRSPHandler extends DimseRSPHandler {
             resultStatus.replace("NumberOfFailedSuboperations", failed);
         }
         if (completed > 0 && failed == 0 && remaining == 0 && warning == 0 && resultStatusValue != Status.Success) {
-            status = Status.Success;
-        	resultStatus.replace("Status", status);
-        	resultStatus.replace(STATUS_TEXT, getStatusText());
+        	resultStatus.replace("Status", Status.Success);
+        	resultStatus.replace(STATUS_TEXT, getStatusText(Status.Success));
+        	return Status.Success;
         }
+        return -1;
     }
 }
@@ -5,16 +5,11 @@ import java.util.concurrent.TimeUnit;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Connection;
-import org.dcm4che3.net.DataWriterAdapter;
-import org.dcm4che3.net.Device;
 import org.dcm4che3.net.IncompatibleConnectionException;
 import org.dcm4che3.net.pdu.AAssociateRQ;
 import org.dcm4che3.net.pdu.PresentationContext;
@@ -22,9 +17,10 @@ import org.dcm4che3.net.pdu.UserIdentityRQ;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.jh.pm.tic.dicom.config.ConnectorConfig;
 import edu.jh.pm.tic.dicom.config.SCUConfig;
 import edu.jh.pm.tic.dicom.config.StorageConfig;
+import edu.jh.pm.tic.dicom.metrics.Operation;
+import edu.jh.pm.tic.dicom.metrics.RemoteMetrics;
 import edu.jh.pm.tic.dicom.store.MuleCStoreSCP;
 import edu.jh.pm.tic.dicom.store.MuleStore;
 
@@ -37,29 +33,27 @@ import edu.jh.pm.tic.dicom.store.MuleStore;
  */
 class MuleSCU {
     private static final Logger log = LoggerFactory.getLogger(MuleSCU.class);
+    private final SCURuntime runtime;
     private final ApplicationEntity ae;
-    private final Connection conn = new Connection();
+    private final Connection conn;
     private final Connection remote = new Connection();
     private final AAssociateRQ rq = new AAssociateRQ();
-    private final Device device;
-    private final ExecutorService executorService;
-    private final ScheduledExecutorService scheduledExecutorService;
+    private final MuleStore store;
     private final int cancelAfter;
+    private final String operation;
+    private final RemoteMetrics metrics;
     private Association as;
     private ScheduledFuture<?> scheduledCancel;
 
-    public MuleSCU(String operation, SCUConfig config, ConnectorConfig connector, MuleStore store, Map<String,Object> storageSOP) {
+    public MuleSCU(SCURuntime runtime, String operation, SCUConfig config, MuleStore store, Map<String,Object> storageSOP) {
         cancelAfter = config.getCancelAfter();
-        device = new Device(operation + "SCU");
-        this.ae = new ApplicationEntity(connector.getAetName());
+        this.runtime = runtime;
+        this.operation = operation;
+        this.ae = runtime.getApplicationEntity();
+        this.conn = runtime.getConnection(config.getStoreTimeout());
+        this.store = store;
+        this.metrics = runtime.getMetrics(config.getAetName());
         this.as = null;
-        device.addConnection(this.conn);
-        device.addApplicationEntity(this.ae);
-        this.ae.addConnection(this.conn);
-        if (store != null) {
-            MuleCStoreSCP cStoreSCP = new MuleCStoreSCP(store);
-            device.setDimseRQHandler(cStoreSCP.createServiceRegistry());
-        }
         rq.setCalledAET(config.getAetName());
         if (config.getUserName() != null && !config.getUserName().isEmpty()) {
             UserIdentityRQ identity = UserIdentityRQ.usernamePasscode(config.getUserName(), config.getUserPassword().toCharArray(), config.getUserResponseRequested());
@@ -68,57 +62,80 @@ class MuleSCU {
         remote.setHostname(config.getHostname());
         remote.setPort(config.getPort());
         remote.setHttpProxy(null);
-        conn.setReceivePDULength(16378);
-        conn.setSendPDULength(16378);
-        conn.setMaxOpsInvoked(0);
-        conn.setMaxOpsPerformed(0);
-        conn.setPackPDV(true);
-        conn.setConnectTimeout(0);
-        conn.setRequestTimeout(0);
-        conn.setAcceptTimeout(0);
-        conn.setReleaseTimeout(0);
-        conn.setSendTimeout(0);
-        conn.setStoreTimeout(config.getStoreTimeout());
-        conn.setResponseTimeout(0);
-        conn.setIdleTimeout(0);
-        conn.setSocketCloseDelay(50);
-        conn.setSendBufferSize(0);
-        conn.setReceiveBufferSize(0);
-        conn.setTcpNoDelay(true);
         PresentationContext pc = new PresentationContext(1, config.getInformationModelCuid(operation), config.getTransferSyntaxCodes());
         rq.addPresentationContext(pc);
         StorageConfig.setSOPFromMap(rq, storageSOP);
-        executorService = Executors.newSingleThreadExecutor();
-        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-        device.setExecutor(executorService);
-        device.setScheduledExecutor(scheduledExecutorService);
     }
 
     public void open() throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
         close();
-        this.as = this.ae.connect(this.conn, this.remote, this.rq);
+        this.as = Metering.connect(this.ae, this.conn, this.remote, this.rq, metrics, runtime.startTrace("SCU " + operation, rq.getCalledAET()));
+        // The shared C-STORE SCP looks up where to save C-GET sub-operations on the association
+        if (store != null) this.as.setProperty(MuleCStoreSCP.STORE_PROPERTY, store);
+    }
+
+    public boolean isOpen() {
+        return this.as != null && this.as.isReadyForDataTransfer();
+    }
+
+    /**
+     * Waits for the final response, leaving the association open for another request
+     */
+    public void waitForOutstandingRSP() throws InterruptedException {
+        if (this.as != null) this.as.waitForOutstandingRSP();
+        if (this.scheduledCancel != null) {
+            this.scheduledCancel.cancel(false);
+            this.scheduledCancel = null;
+        }
     }
 
     public void close() throws InterruptedException {
-        if (this.scheduledCancel == null && this.as != null && this.as.isReadyForDataTransfer()) {
-            this.as.waitForOutstandingRSP();
-            try {
-                this.as.release();
-            } catch (IOException ex) {
-                if (log.isTraceEnabled()) log.trace("Ignored exception {}", ex.toString());
+        try {
+            if (this.as != null) {
+                if (this.as.isReadyForDataTransfer()) {
+                    this.as.waitForOutstandingRSP();
+                    try {
+                        Metering.releasing(this.as, metrics);
+                        this.as.release();
+                    } catch (IOException ex) {
+                        if (log.isTraceEnabled()) log.trace("Ignored exception {}", ex.toString());
+                    }
+                } else {
+                    this.as.abort();
+                }
+                this.as = null;
+            }
+        } finally {
+            if (this.scheduledCancel != null) {
+                this.scheduledCancel.cancel(false);
+                this.scheduledCancel = null;
             }
-            this.as = null;
-            this.scheduledCancel = null;
-            executorService.shutdown();
-            scheduledExecutorService.shutdown();
         }
     }
 
+    /**
+     * Sends a C-CANCEL for an operation still running on this association
+     */
+    public void cancel(MuleDimseRSPHandler rspHandler) throws IOException {
+        Association current = this.as;
+        if (current != null && current.isReadyForDataTransfer()) rspHandler.cancel(current);
+    }
+
     public MuleDimseRSPHandler cmove(String cuid, Attributes keys) throws IOException, InterruptedException {
-        final MuleDimseRSPHandler rspHandler = new MuleDimseRSPHandler(this.as.nextMessageID());
+        return cmove(cuid, keys, null, 0);
+    }
+
+    /**
+     * @param listener Notified of the sub-operation counts as responses arrive, may be null
+     * @param progressInterval Minimum milliseconds between pending notifications
+     */
+    public RetrieveRSPHandler cmove(String cuid, Attributes keys, RetrieveProgressListener listener, int progressInterval) throws IOException, InterruptedException {
+        final RetrieveRSPHandler rspHandler = new RetrieveRSPHandler(this.as.nextMessageID(), listener, progressInterval);
+        rspHandler.startTimer(metrics, Operation.C_MOVE);
+        Metering.request(this.as, rspHandler.getMessageID(), "C-MOVE");
         this.as.cmove(cuid, 0, keys, (String)null, this.ae.getAETitle(), rspHandler);
         if (cancelAfter > 0) {
-            this.scheduledCancel = device.schedule(() -> {
+            this.scheduledCancel = runtime.getDevice().schedule(() -> {
                 try {
                     rspHandler.cancel(MuleSCU.this.as);
                 } catch (IOException e) {
@@ -131,10 +148,45 @@ class MuleSCU {
     }
 
     public MuleDimseRSPHandler cfind(String cuid, Attributes keys) throws IOException, InterruptedException {
+        return cfind(cuid, keys, 0, null);
+    }
+
+    /**
+     * @param maxResults C-CANCEL once this many results arrive, 0 is unlimited
+     * @param tagFilter Tags kept in each result, null keeps all
+     */
+    public MuleDimseRSPHandler cfind(String cuid, Attributes keys, int maxResults, TagFilter tagFilter) throws IOException, InterruptedException {
         final MuleDimseRSPHandler rspHandler = new MuleDimseRSPHandler(this.as.nextMessageID());
+        rspHandler.setMaxResults(maxResults);
+        rspHandler.setTagFilter(tagFilter);
+        return cfind(cuid, keys, rspHandler);
+    }
+
+    /**
+     * Starts a C-FIND whose results are read from the returned iterator. The iterator releases
+     * the association once the final response is read or it's closed.
+     */
+    public StreamingFindRSPHandler.ResultIterator cfindStream(String cuid, Attributes keys, int maxResults, TagFilter tagFilter, int prefetch) throws IOException, InterruptedException {
+        final StreamingFindRSPHandler rspHandler = new StreamingFindRSPHandler(this.as.nextMessageID(), prefetch, runtime.getExecutor());
+        rspHandler.setMaxResults(maxResults);
+        rspHandler.setTagFilter(tagFilter);
+        StreamingFindRSPHandler.ResultIterator iterator = rspHandler.iterator(this.as, () -> {
+            try {
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        cfind(cuid, keys, rspHandler);
+        return iterator;
+    }
+
+    private <T extends MuleDimseRSPHandler> T cfind(String cuid, Attributes keys, final T rspHandler) throws IOException, InterruptedException {
+        rspHandler.startTimer(metrics, Operation.C_FIND);
+        Metering.request(this.as, rspHandler.getMessageID(), "C-FIND");
         this.as.cfind(cuid, 0, keys, (String)null, rspHandler);
         if (cancelAfter > 0) {
-            this.scheduledCancel = device.schedule(() -> {
+            this.scheduledCancel = runtime.getDevice().schedule(() -> {
                 try {
                     rspHandler.cancel(MuleSCU.this.as);
                 } catch (IOException e) {
@@ -147,10 +199,20 @@ class MuleSCU {
     }
 
     public MuleDimseRSPHandler cget(String cuid, Attributes keys) throws IOException, InterruptedException {
-        final MuleDimseRSPHandler rspHandler = new MuleDimseRSPHandler(this.as.nextMessageID());
+        return cget(cuid, keys, null, 0);
+    }
+
+    /**
+     * @param listener Notified of the sub-operation counts as responses arrive, may be null
+     * @param progressInterval Minimum milliseconds between pending notifications
+     */
+    public RetrieveRSPHandler cget(String cuid, Attributes keys, RetrieveProgressListener listener, int progressInterval) throws IOException, InterruptedException {
+        final RetrieveRSPHandler rspHandler = new RetrieveRSPHandler(this.as.nextMessageID(), listener, progressInterval);
+        rspHandler.startTimer(metrics, Operation.C_GET);
+        Metering.request(this.as, rspHandler.getMessageID(), "C-GET");
         this.as.cget(cuid, 0, keys, (String)null, rspHandler);
         if (cancelAfter > 0) {
-            this.scheduledCancel = device.schedule(() -> {
+            this.scheduledCancel = runtime.getDevice().schedule(() -> {
                 try {
                     rspHandler.cancel(MuleSCU.this.as);
                 } catch (IOException e) {
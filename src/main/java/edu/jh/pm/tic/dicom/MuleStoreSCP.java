@@ -2,21 +2,38 @@ package edu.jh.pm.tic.dicom;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.dcm4che3.data.UID;
 import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.AssociationHandler;
 import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.net.TransferCapability;
+import org.dcm4che3.net.pdu.AAssociateAC;
+import org.dcm4che3.net.pdu.AAssociateRJ;
+import org.dcm4che3.net.pdu.AAssociateRQ;
 import org.mule.api.callback.SourceCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import edu.jh.pm.tic.dicom.config.ConnectorConfig;
+import edu.jh.pm.tic.dicom.metrics.ConnectorMetrics;
+import edu.jh.pm.tic.dicom.store.InFlightLimiter;
 import edu.jh.pm.tic.dicom.store.MuleCStoreSCP;
 import edu.jh.pm.tic.dicom.store.MuleProcessStore;
 import edu.jh.pm.tic.dicom.store.MuleStore;
+import edu.jh.pm.tic.dicom.trace.AssociationTrace;
+import edu.jh.pm.tic.dicom.trace.Phase;
+import edu.jh.pm.tic.dicom.trace.TraceRecorder;
 
 /**
  * Copyright (c) 2022 The Johns Hopkins University
@@ -26,21 +43,39 @@ import edu.jh.pm.tic.dicom.store.MuleStore;
  *
  */
 class MuleStoreSCP {
+	private static final Logger log = LoggerFactory.getLogger(MuleStoreSCP.class);
 	private final Device device = new Device("storescp");
+	private final ThreadPoolExecutor executorService;
+	private final ScheduledExecutorService scheduledExecutorService;
+	private final MuleCStoreSCP cStoreSCP;
 
 	public void startReceiver() throws IOException, GeneralSecurityException {
 		device.bindConnections();
 	}
 	
+	/**
+	 * Called with the SOP Instance UID of every instance received and processed, may be null
+	 */
+	public void setStoredListener(Consumer<String> storedListener) {
+		cStoreSCP.setStoredListener(storedListener);
+	}
+
 	public void stopReceiver() {
 		device.unbindConnections();
+		executorService.shutdown();
+		scheduledExecutorService.shutdown();
 	}
 	
-	public MuleStoreSCP(ConnectorConfig config, SourceCallback callback) {
+	/**
+	 * @param memoryBudget Connector-wide budget for instances held in memory, may be null
+	 * @param metrics Counts instances and bytes received from each remote AE, may be null
+	 * @param tracer Traces sampled associations, may be null
+	 */
+	public MuleStoreSCP(ConnectorConfig config, SourceCallback callback, InFlightLimiter memoryBudget, ConnectorMetrics metrics, TraceRecorder tracer) {
         // Create the Connection
         Connection conn = new Connection();
-        conn.setReceivePDULength(Connection.DEF_MAX_PDU_LENGTH);
-        conn.setSendPDULength(Connection.DEF_MAX_PDU_LENGTH);
+        conn.setReceivePDULength(config.getReceivePduLength() > 0 ? config.getReceivePduLength() : Connection.DEF_MAX_PDU_LENGTH);
+        conn.setSendPDULength(config.getSendPduLength() > 0 ? config.getSendPduLength() : Connection.DEF_MAX_PDU_LENGTH);
         conn.setMaxOpsInvoked(config.getMaxOpsInvoked());
         conn.setMaxOpsPerformed(config.getMaxOpsPerformed());
         conn.setPackPDV(true);
@@ -65,17 +100,70 @@ class MuleStoreSCP {
         // Accept all transfer types
         ae.addTransferCapability(new TransferCapability((String)null, "*", TransferCapability.Role.SCP, UID.ImplicitVRLittleEndian, UID.ExplicitVRLittleEndian, UID.ExplicitVRBigEndian));
 
-        MuleStore store = new MuleProcessStore(callback);
-        MuleCStoreSCP cStoreSCP = new MuleCStoreSCP(store);
+        MuleStore store = new MuleProcessStore(callback, config.getSpoolThreshold(), config.getSpoolDirectory(), config.getDeleteSpoolFiles(), memoryBudget, TagFilter.parse(config.getIncludeTags(), config.getExcludeTags()));
+        InFlightLimiter limiter = config.getMaxInFlightMegabytes() > 0 ? new InFlightLimiter(config.getMaxInFlightMegabytes() * 1048576L) : null;
+        cStoreSCP = new MuleCStoreSCP(store, limiter, metrics);
         
         // Configure the Device
-        ExecutorService executorService = Executors.newCachedThreadPool();
-        ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+        // Each association holds a thread while it's open. Once every thread is busy, accepting
+        // new connections waits for one to free up so TCP pushes back on senders.
+        // The accept loop runs on the device's executor too, so it gets a thread on top of the associations'.
+        int maxThreads = Math.max(1, config.getScpMaxThreads()) + 1;
+        int queueSize = config.getScpQueueSize();
+        executorService = new ThreadPoolExecutor(Math.min(Math.max(1, config.getScpCoreThreads() + 1), maxThreads), maxThreads, 60L, TimeUnit.SECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                (r, executor) -> {
+                    try {
+                        // Waits in short steps so the accept loop's thread isn't stuck here once the receiver stops
+                        while (!executor.isShutdown()) {
+                            if (executor.getQueue().offer(r, 1, TimeUnit.SECONDS)) return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(e);
+                    }
+                    throw new RejectedExecutionException("Store SCP is stopped");
+                });
+        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
         device.setDimseRQHandler(cStoreSCP.createServiceRegistry());
         device.addConnection(conn);
         device.addApplicationEntity(ae);
         device.setScheduledExecutor(scheduledExecutorService);
-        device.setExecutor(executorService);        
+        device.setExecutor(executorService);
+        if (config.getMaxAssociations() > 0) device.setLimitOpenAssociations(config.getMaxAssociations());
+        if (limiter != null || tracer != null) device.setAssociationHandler(new AdmissionHandler(limiter, tracer));
+	}
+
+	/**
+	 * Rejects new associations as transient congestion while the in-flight byte limit is reached,
+	 * and starts tracing sampled associations
+	 */
+	private static class AdmissionHandler extends AssociationHandler {
+		private final InFlightLimiter limiter;
+		private final TraceRecorder tracer;
+
+		AdmissionHandler(InFlightLimiter limiter, TraceRecorder tracer) {
+			this.limiter = limiter;
+			this.tracer = tracer;
+		}
+
+		@Override
+		protected AAssociateAC negotiate(Association as, AAssociateRQ rq) throws IOException {
+			AssociationTrace trace = tracer != null ? tracer.start("SCP", rq.getCalledAET(), rq.getCallingAET()) : null;
+			if (trace != null) trace.add(Phase.ASSOCIATE_RQ, 0, rq.getPresentationContexts().size() + " presentation contexts");
+			if (limiter != null && limiter.isExhausted()) {
+				log.info("Rejecting association from {}, {} bytes in flight", rq.getCallingAET(), limiter.getUsed());
+				if (trace != null) trace.complete("rejected, " + limiter.getUsed() + " bytes in flight");
+				throw new AAssociateRJ(AAssociateRJ.RESULT_REJECTED_TRANSIENT,
+						AAssociateRJ.SOURCE_SERVICE_PROVIDER_PRES, AAssociateRJ.REASON_TEMPORARY_CONGESTION);
+			}
+			AAssociateAC ac = super.negotiate(as, rq);
+			if (trace != null) {
+				trace.add(Phase.ASSOCIATE_AC);
+				trace.attach(as, rq, ac);
+			}
+			return ac;
+		}
 	}
 
 }
@@ -1,8 +1,9 @@
 package edu.jh.pm.tic.dicom;
 
-import edu.jh.pm.tic.dicom.config.ConnectorConfig;
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.net.*;
 import org.dcm4che3.net.pdu.AAssociateRQ;
 import org.dcm4che3.net.pdu.PresentationContext;
@@ -10,35 +11,43 @@ import org.dcm4che3.net.pdu.UserIdentityRQ;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.util.concurrent.*;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.jh.pm.tic.dicom.metrics.Operation;
+import edu.jh.pm.tic.dicom.metrics.RemoteMetrics;
 
 class MuleStoreSCU {
     private static final Logger log = LoggerFactory.getLogger(MuleStoreSCU.class);
+    private final SCURuntime runtime;
     private final ApplicationEntity ae;
-    private final Connection conn = new Connection();
+    private final Connection conn;
     private final Connection remote = new Connection();
     private final AAssociateRQ rq = new AAssociateRQ();
-    private final Device device;
-    private final ExecutorService executorService;
-    private final ScheduledExecutorService scheduledExecutorService;
-    private final int cancelAfter;
     private final String cuid;
     private final String tsuid;
+    private int cancelAfter;
+    public void setCancelAfter(int cancelAfter) { this.cancelAfter = cancelAfter; }
     private Association as;
     private ScheduledFuture<?> scheduledCancel;
+    private final RemoteMetrics metrics;
+    private volatile long lastUsed = System.currentTimeMillis();
+    public long getLastUsed() { return lastUsed; }
+    public void touch() { lastUsed = System.currentTimeMillis(); }
 
-    public MuleStoreSCU(ConnectorConfig connector, String cuid, String tsuid, String remoteAetName, String remoteHostname, int remotePort, int cancelAfter, String userName, String userPassword, boolean userResponseRequested) {
+    public MuleStoreSCU(SCURuntime runtime, String cuid, String tsuid, String remoteAetName, String remoteHostname, int remotePort, int cancelAfter, String userName, String userPassword, boolean userResponseRequested) {
+        this.runtime = runtime;
         this.cancelAfter = cancelAfter;
         this.cuid = cuid;
         this.tsuid = tsuid;
-        device = new Device("StoreSCU");
-        this.ae = new ApplicationEntity(connector.getAetName());
+        this.ae = runtime.getApplicationEntity();
+        this.conn = runtime.getConnection(0);
+        this.metrics = runtime.getMetrics(remoteAetName);
         this.as = null;
-        device.addConnection(this.conn);
-        device.addApplicationEntity(this.ae);
-        this.ae.addConnection(this.conn);
         rq.setCalledAET(remoteAetName);
         if (userName != null && !userName.isEmpty()) {
             UserIdentityRQ identity = UserIdentityRQ.usernamePasscode(userName, userPassword.toCharArray(), userResponseRequested);
@@ -47,59 +56,124 @@ class MuleStoreSCU {
         remote.setHostname(remoteHostname);
         remote.setPort(remotePort);
         remote.setHttpProxy(null);
-        conn.setReceivePDULength(16378);
-        conn.setSendPDULength(16378);
-        conn.setMaxOpsInvoked(0);
-        conn.setMaxOpsPerformed(0);
-        conn.setPackPDV(true);
-        conn.setConnectTimeout(0);
-        conn.setRequestTimeout(0);
-        conn.setAcceptTimeout(0);
-        conn.setReleaseTimeout(0);
-        conn.setSendTimeout(0);
-        conn.setStoreTimeout(0);
-        conn.setResponseTimeout(0);
-        conn.setIdleTimeout(0);
-        conn.setSocketCloseDelay(50);
-        conn.setSendBufferSize(0);
-        conn.setReceiveBufferSize(0);
-        conn.setTcpNoDelay(true);
         int pcid = 1;
-        rq.addPresentationContext(new PresentationContext(pcid++, UID.Verification, tsuid));
+        // Every SCP accepts Verification in Implicit VR Little Endian, unlike a compressed tsuid
+        rq.addPresentationContext(new PresentationContext(pcid++, UID.Verification, UID.ImplicitVRLittleEndian));
         rq.addPresentationContext(new PresentationContext(pcid++, cuid, tsuid));
         if (!tsuid.equals(UID.ExplicitVRLittleEndian)) rq.addPresentationContext(new PresentationContext(pcid++, cuid, UID.ExplicitVRLittleEndian));
         if (!tsuid.equals(UID.ImplicitVRLittleEndian)) rq.addPresentationContext(new PresentationContext(pcid++, cuid, UID.ImplicitVRLittleEndian));
-        executorService = Executors.newSingleThreadExecutor();
-        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-        device.setExecutor(executorService);
-        device.setScheduledExecutor(scheduledExecutorService);
     }
 
     public void close() throws InterruptedException {
-        if (this.scheduledCancel == null && this.as != null && this.as.isReadyForDataTransfer()) {
-            this.as.waitForOutstandingRSP();
-            try {
-                this.as.release();
-            } catch (IOException ex) {
-                if (log.isTraceEnabled()) log.trace("Ignored exception {}", ex.toString());
+        try {
+            if (this.as != null) {
+                if (this.as.isReadyForDataTransfer()) {
+                    this.as.waitForOutstandingRSP();
+                    try {
+                        Metering.releasing(this.as, metrics);
+                        this.as.release();
+                    } catch (IOException ex) {
+                        if (log.isTraceEnabled()) log.trace("Ignored exception {}", ex.toString());
+                    }
+                } else {
+                    this.as.abort();
+                }
+                this.as = null;
+            }
+        } finally {
+            if (this.scheduledCancel != null) {
+                this.scheduledCancel.cancel(false);
+                this.scheduledCancel = null;
             }
-            this.as = null;
-            this.scheduledCancel = null;
-            executorService.shutdown();
-            scheduledExecutorService.shutdown();
         }
     }
 
     public void open() throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
         close();
-        this.as = this.ae.connect(this.conn, this.remote, this.rq);
+        this.as = Metering.connect(this.ae, this.conn, this.remote, this.rq, metrics, runtime.startTrace("SCU Store", rq.getCalledAET()));
+    }
+
+    public boolean isOpen() {
+        return this.as != null && this.as.isReadyForDataTransfer();
+    }
+
+    /**
+     * Waits for the C-STORE response, leaving the association open for another request
+     */
+    public void waitForOutstandingRSP() throws InterruptedException {
+        if (this.as != null) this.as.waitForOutstandingRSP();
+        if (this.scheduledCancel != null) {
+            this.scheduledCancel.cancel(false);
+            this.scheduledCancel = null;
+        }
+    }
+
+    /**
+     * Verifies the association is still usable with a C-ECHO
+     */
+    public boolean echo() {
+        try {
+            DimseRSP rsp = this.as.cecho();
+            rsp.next();
+            return rsp.getCommand().getInt(Tag.Status, -1) == Status.Success;
+        } catch (IOException ex) {
+            log.debug("C-ECHO failed on {}: {}", this.as, ex.toString());
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Closes the association, aborting it if it can't be released normally
+     */
+    public void release() {
+        try {
+            close();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        abort();
+    }
+
+    public void abort() {
+        if (this.as != null) this.as.abort();
+        this.as = null;
+        if (this.scheduledCancel != null) {
+            this.scheduledCancel.cancel(false);
+            this.scheduledCancel = null;
+        }
     }
 
     public MuleDimseRSPHandler cstore(String iuid, Attributes data) throws IOException, InterruptedException {
+        return cstore(iuid, new DataWriterAdapter(data), selectTransferSyntax());
+    }
+
+    /**
+     * Sends a DICOM file. When the file's Transfer Syntax was accepted the dataset bytes are
+     * streamed from disk as they are, otherwise the file is parsed and re-encoded.
+     * @param offset Position of the dataset in the file, just after the File Meta Information
+     */
+    public MuleDimseRSPHandler cstore(String iuid, File file, long offset) throws IOException, InterruptedException {
+        if (this.as.getTransferSyntaxesFor(cuid).contains(tsuid)) {
+            return cstore(iuid, new FileDataWriter(file, offset), tsuid);
+        }
+        log.debug("{} not accepted for {}, re-encoding {}", tsuid, cuid, file);
+        Attributes data;
+        try (DicomInputStream dis = new DicomInputStream(file)) {
+            data = dis.readDataset();
+        }
+        return cstore(iuid, data);
+    }
+
+    private MuleDimseRSPHandler cstore(String iuid, DataWriter writer, String tsuid) throws IOException, InterruptedException {
         final MuleDimseRSPHandler rspHandler = new MuleDimseRSPHandler(this.as.nextMessageID());
-        this.as.cstore(cuid, iuid, 0, new DataWriterAdapter(data), tsuid, rspHandler);
+        rspHandler.startTimer(metrics, Operation.C_STORE);
+        DataWriter counted = Metering.counting(writer, metrics);
+        this.as.cstore(cuid, iuid, 0, Metering.tracing(this.as, rspHandler.getMessageID(), iuid, counted), tsuid, rspHandler);
         if (cancelAfter > 0) {
-            this.scheduledCancel = device.schedule(() -> {
+            this.scheduledCancel = runtime.getDevice().schedule(() -> {
                 try {
                     rspHandler.cancel(MuleStoreSCU.this.as);
                 } catch (IOException e) {
@@ -110,4 +184,24 @@ class MuleStoreSCU {
         }
         return rspHandler;
     }
+
+    /**
+     * Uses the requested Transfer Syntax when it was accepted, otherwise one of the proposed fallbacks
+     */
+    private String selectTransferSyntax() {
+        Set<String> accepted = this.as.getTransferSyntaxesFor(cuid);
+        if (accepted.isEmpty() || accepted.contains(tsuid)) return tsuid;
+        // Only uncompressed datasets can be re-encoded
+        if (!tsuid.equals(UID.ExplicitVRLittleEndian) && !tsuid.equals(UID.ImplicitVRLittleEndian) && !tsuid.equals(UID.ExplicitVRBigEndian)) return tsuid;
+        if (accepted.contains(UID.ExplicitVRLittleEndian)) return UID.ExplicitVRLittleEndian;
+        if (accepted.contains(UID.ImplicitVRLittleEndian)) return UID.ImplicitVRLittleEndian;
+        return tsuid;
+    }
+
+    /**
+     * Something to send over a borrowed or newly opened association
+     */
+    interface StoreCall {
+        MuleDimseRSPHandler cstore(MuleStoreSCU scu) throws IOException, InterruptedException;
+    }
 }
@@ -0,0 +1,194 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Parses many DICOM files on a fork/join pool. At most window files are parsed ahead of the flow,
+ * so a large directory doesn't end up in memory at once.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class ParallelFileReader {
+    static final String FILE_NAME = "FileName";
+    static final String PAYLOAD = "Payload";
+    static final String INBOUND_PROPERTIES = "InboundProperties";
+    static final String ERROR = "Error";
+    private final DicomFileReader reader;
+    private final ForkJoinPool pool;
+    private final int window;
+    private final boolean preserveOrder;
+
+    /**
+     * @param window Files parsed ahead of the flow
+     * @param preserveOrder Results come back in the order of the file list, otherwise as each file is parsed
+     */
+    ParallelFileReader(DicomFileReader reader, ForkJoinPool pool, int window, boolean preserveOrder) {
+        this.reader = reader;
+        this.pool = pool;
+        this.window = Math.max(1, window);
+        this.preserveOrder = preserveOrder;
+    }
+
+    /**
+     * Lists the files under a directory, sorted by name
+     * @param glob Matched against each file's path relative to directory, blank matches all
+     * @param recursive Include subdirectories
+     */
+    static List<String> list(String directory, String glob, boolean recursive) throws IOException {
+        Path root = Paths.get(directory);
+        PathMatcher matcher = glob == null || glob.trim().isEmpty() ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob.trim());
+        try (Stream<Path> paths = recursive ? Files.walk(root) : Files.list(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(p -> matcher == null || matcher.matches(root.relativize(p)))
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Each result is a map with FileName and either the Payload and InboundProperties Read File would
+     * produce, or the Error that stopped the file being read.
+     */
+    Iterator<Map<String,Object>> read(Iterator<String> fileNames) {
+        return preserveOrder ? new OrderedIterator(fileNames) : new CompletionIterator(fileNames);
+    }
+
+    /**
+     * Groups results into lists of up to batchSize
+     */
+    static Iterator<List<Map<String,Object>>> batches(Iterator<Map<String,Object>> results, int batchSize) {
+        return new Iterator<List<Map<String,Object>>>() {
+            @Override
+            public boolean hasNext() {
+                return results.hasNext();
+            }
+
+            @Override
+            public List<Map<String,Object>> next() {
+                if (!results.hasNext()) throw new NoSuchElementException();
+                List<Map<String,Object>> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && results.hasNext()) batch.add(results.next());
+                return batch;
+            }
+        };
+    }
+
+    private Map<String,Object> readOne(String fileName) {
+        Map<String,Object> result = new HashMap<>();
+        result.put(FILE_NAME, fileName);
+        try {
+            DicomFileReader.Result read = reader.read(new File(fileName));
+            result.put(PAYLOAD, read.data);
+            result.put(INBOUND_PROPERTIES, read.properties);
+        } catch (IOException | RuntimeException e) {
+            result.put(ERROR, e.toString());
+        }
+        return result;
+    }
+
+    private static Map<String,Object> get(Future<Map<String,Object>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted reading files", e);
+        } catch (ExecutionException e) {
+            // readOne reports its own failures, so only errors get here
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private final class OrderedIterator implements Iterator<Map<String,Object>> {
+        private final Iterator<String> fileNames;
+        private final ArrayDeque<Future<Map<String,Object>>> pending = new ArrayDeque<>();
+
+        OrderedIterator(Iterator<String> fileNames) {
+            this.fileNames = fileNames;
+            fill();
+        }
+
+        private void fill() {
+            while (pending.size() < window && fileNames.hasNext()) {
+                String fileName = fileNames.next();
+                pending.add(pool.submit(() -> readOne(fileName)));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public Map<String,Object> next() {
+            if (pending.isEmpty()) throw new NoSuchElementException();
+            Map<String,Object> result = get(pending.poll());
+            fill();
+            return result;
+        }
+    }
+
+    private final class CompletionIterator implements Iterator<Map<String,Object>> {
+        private final Iterator<String> fileNames;
+        private final CompletionService<Map<String,Object>> completed = new ExecutorCompletionService<>(pool);
+        private int pending = 0;
+
+        CompletionIterator(Iterator<String> fileNames) {
+            this.fileNames = fileNames;
+            fill();
+        }
+
+        private void fill() {
+            while (pending < window && fileNames.hasNext()) {
+                String fileName = fileNames.next();
+                completed.submit(() -> readOne(fileName));
+                pending++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pending > 0;
+        }
+
+        @Override
+        public Map<String,Object> next() {
+            if (pending == 0) throw new NoSuchElementException();
+            Map<String,Object> result;
+            try {
+                result = get(completed.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted reading files", e);
+            }
+            pending--;
+            fill();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.net.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jh.pm.tic.dicom.config.SCUConfig;
+import edu.jh.pm.tic.dicom.models.RetrieveLevel;
+import edu.jh.pm.tic.dicom.store.MuleStore;
+
+/**
+ * Splits a study retrieve into SERIES or IMAGE level C-MOVEs or C-GETs run over several associations
+ * at once, so a study isn't limited to what one association can stream. Each association works
+ * through the shared queue of retrieves, reusing itself between them.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class ParallelRetrieve {
+    private static final Logger log = LoggerFactory.getLogger(ParallelRetrieve.class);
+    private final SCURuntime runtime;
+    private final SCUConfig remote;
+    private final String operation;
+    private final MuleStore store;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private RetrieveProgressListener listener;
+    private int progressInterval;
+
+    /**
+     * @param operation Move or Get
+     * @param store Where C-GET instances are saved, shared by every association. Null for C-MOVE.
+     * @param parallelism Concurrent associations
+     * @param executor Runs one task per association
+     */
+    ParallelRetrieve(SCURuntime runtime, SCUConfig remote, String operation, MuleStore store, int parallelism, ExecutorService executor) {
+        this.runtime = runtime;
+        this.remote = remote;
+        this.operation = operation;
+        this.store = store;
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = executor;
+    }
+
+    /**
+     * One C-MOVE or C-GET, and how many instances it's expected to retrieve, or UNKNOWN
+     */
+    static final class Unit {
+        static final int UNKNOWN = -1;
+        final Attributes keys;
+        final int expected;
+
+        Unit(Attributes keys, int expected) {
+            this.keys = keys;
+            this.expected = expected;
+        }
+    }
+
+    /**
+     * Reports the sub-operation counts of every retrieve added together, as though they were one retrieve.
+     * Pending counts are reported no more often than the interval, and the final counts once all are done.
+     * There's no single message, so the MessageID is 0.
+     *
+     * @param listener Notified of progress, may be null
+     * @param progressInterval Minimum milliseconds between pending notifications, 0 notifies every response
+     */
+    void setProgress(RetrieveProgressListener listener, int progressInterval) {
+        this.listener = listener;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Parses limits like "PACS=8,OUTSIDE=2" and returns the one for a remote AE
+     */
+    static int parallelismFor(String remoteAet, String limits, int defaultParallelism) {
+        if (limits != null && !limits.isEmpty()) {
+            for (String limit : limits.split(",")) {
+                int eq = limit.indexOf('=');
+                if (eq > 0 && limit.substring(0, eq).trim().equals(remoteAet)) {
+                    try {
+                        return Integer.parseInt(limit.substring(eq + 1).trim());
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring parallel retrieve limit {}", limit);
+                    }
+                }
+            }
+        }
+        return defaultParallelism;
+    }
+
+    /**
+     * Finds the series the keys select, and their instances for IMAGE level, then retrieves them.
+     * Keys that select instances are always fanned out at IMAGE level, so nothing more is retrieved.
+     *
+     * @param instancesPerRetrieve SOP Instance UIDs in each IMAGE level retrieve
+     */
+    Map<String,Object> retrieveStudy(Attributes keys, RetrieveLevel fanOutLevel, int instancesPerRetrieve)
+            throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        if (keys.getString(Tag.StudyInstanceUID) == null) throw new IOException("A parallel retrieve needs the StudyInstanceUID");
+        List<Map<String,Object>> series = findSeries(keys);
+        List<Unit> units = fanOutLevel(keys, fanOutLevel) == RetrieveLevel.IMAGE
+                ? instanceUnits(findInstances(keys, series), instancesPerRetrieve)
+                : seriesUnits(keys, series);
+        return retrieve(units);
+    }
+
+    /**
+     * IMAGE when the keys select instances, otherwise the requested level
+     */
+    static RetrieveLevel fanOutLevel(Attributes keys, RetrieveLevel requested) {
+        return keys.containsValue(Tag.SOPInstanceUID) ? RetrieveLevel.IMAGE : requested;
+    }
+
+    /**
+     * Series of the study, only those in the keys when they have a SeriesInstanceUID
+     */
+    List<Map<String,Object>> findSeries(Attributes keys) throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        Attributes query = new Attributes(keys);
+        query.setString(Tag.QueryRetrieveLevel, VR.CS, "SERIES");
+        // Instances are selected by findInstances, an IMAGE level key doesn't belong in a SERIES level query
+        query.remove(Tag.SOPInstanceUID);
+        if (!keys.containsValue(Tag.SeriesInstanceUID)) query.setNull(Tag.SeriesInstanceUID, VR.UI);
+        query.setNull(Tag.NumberOfSeriesRelatedInstances, VR.IS);
+        MuleSCU scu = new MuleSCU(runtime, "Find", remote, null, remote.getSopClasses());
+        try {
+            scu.open();
+            MuleDimseRSPHandler handler = scu.cfind(remote.getInformationModelCuid("Find"), query);
+            scu.waitForOutstandingRSP();
+            return handler.getResultData();
+        } finally {
+            scu.close();
+        }
+    }
+
+    /**
+     * Instances of every series, found one series at a time over one association.
+     * Only those in the keys when they have SOP Instance UIDs.
+     */
+    List<Map<String,Object>> findInstances(Attributes keys, List<Map<String,Object>> series)
+            throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        List<Map<String,Object>> instances = new ArrayList<>();
+        MuleSCU scu = new MuleSCU(runtime, "Find", remote, null, remote.getSopClasses());
+        try {
+            scu.open();
+            for (Map<String,Object> s : series) {
+                Attributes query = new Attributes(keys);
+                query.setString(Tag.QueryRetrieveLevel, VR.CS, "IMAGE");
+                query.setString(Tag.SeriesInstanceUID, VR.UI, (String)s.get("SeriesInstanceUID"));
+                if (!keys.containsValue(Tag.SOPInstanceUID)) query.setNull(Tag.SOPInstanceUID, VR.UI);
+                MuleDimseRSPHandler handler = scu.cfind(remote.getInformationModelCuid("Find"), query);
+                scu.waitForOutstandingRSP();
+                instances.addAll(handler.getResultData());
+            }
+        } finally {
+            scu.close();
+        }
+        return instances;
+    }
+
+    /**
+     * A SERIES level retrieve per series. NumberOfSeriesRelatedInstances is optional, so the instances
+     * of series without it are counted with an IMAGE level find. If that fails too, their count is UNKNOWN.
+     */
+    List<Unit> seriesUnits(Attributes keys, List<Map<String,Object>> series) throws InterruptedException {
+        List<Map<String,Object>> uncounted = new ArrayList<>();
+        for (Map<String,Object> s : series) {
+            if (!hasCount(s.get("NumberOfSeriesRelatedInstances"))) uncounted.add(s);
+        }
+        Map<String,Integer> counts = new HashMap<>();
+        if (!uncounted.isEmpty()) {
+            try {
+                for (Map<String,Object> s : uncounted) counts.put((String)s.get("SeriesInstanceUID"), 0);
+                for (Map<String,Object> instance : findInstances(keys, uncounted)) counts.merge((String)instance.get("SeriesInstanceUID"), 1, Integer::sum);
+            } catch (IOException | IncompatibleConnectionException | GeneralSecurityException e) {
+                log.warn("Unable to count the instances of {} series from {}: {}", uncounted.size(), remote.getAetName(), e.toString());
+                counts.clear();
+            }
+        }
+        List<Unit> units = new ArrayList<>(series.size());
+        for (Map<String,Object> s : series) {
+            String seriesUid = (String)s.get("SeriesInstanceUID");
+            Attributes unit = new Attributes(keys);
+            unit.setString(Tag.QueryRetrieveLevel, VR.CS, "SERIES");
+            unit.setString(Tag.SeriesInstanceUID, VR.UI, seriesUid);
+            Object count = s.get("NumberOfSeriesRelatedInstances");
+            units.add(new Unit(unit, hasCount(count) ? parseCount(count) : counts.getOrDefault(seriesUid, Unit.UNKNOWN)));
+        }
+        return units;
+    }
+
+    /**
+     * Batches the instances of each series into IMAGE level retrieves with a list of SOP Instance UIDs
+     *
+     * @param instances Each with its StudyInstanceUID, SeriesInstanceUID and SOPInstanceUID
+     */
+    static List<Unit> instanceUnits(List<Map<String,Object>> instances, int instancesPerRetrieve) {
+        int batchSize = Math.max(1, instancesPerRetrieve);
+        Map<String, List<Map<String,Object>>> bySeries = new LinkedHashMap<>();
+        for (Map<String,Object> instance : instances) {
+            bySeries.computeIfAbsent((String)instance.get("SeriesInstanceUID"), k -> new ArrayList<>()).add(instance);
+        }
+        List<Unit> units = new ArrayList<>();
+        for (List<Map<String,Object>> series : bySeries.values()) {
+            for (int from = 0; from < series.size(); from += batchSize) {
+                List<Map<String,Object>> batch = series.subList(from, Math.min(series.size(), from + batchSize));
+                String[] iuids = new String[batch.size()];
+                for (int i = 0; i < iuids.length; i++) iuids[i] = (String)batch.get(i).get("SOPInstanceUID");
+                Attributes unit = new Attributes(4);
+                unit.setString(Tag.QueryRetrieveLevel, VR.CS, "IMAGE");
+                unit.setString(Tag.StudyInstanceUID, VR.UI, (String)batch.get(0).get("StudyInstanceUID"));
+                unit.setString(Tag.SeriesInstanceUID, VR.UI, (String)batch.get(0).get("SeriesInstanceUID"));
+                unit.setString(Tag.SOPInstanceUID, VR.UI, iuids);
+                units.add(new Unit(unit, iuids.length));
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Runs the retrieves over up to parallelism associations and sums their sub-operation counts
+     * into one result status. A retrieve that fails without a response counts its expected instances as failed.
+     * When that count is unknown, the status is a failure and NumberOfUncountedFailedRetrieves says how many.
+     */
+    Map<String,Object> retrieve(List<Unit> units) throws InterruptedException {
+        Queue<Unit> queue = new ConcurrentLinkedQueue<>(units);
+        Progress progress = listener != null ? new Progress(units) : null;
+        int workers = Math.min(parallelism, units.size());
+        List<Future<Totals>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) futures.add(executor.submit(() -> work(queue, progress)));
+        Totals totals = new Totals();
+        for (Future<Totals> future : futures) {
+            try {
+                totals.add(future.get());
+            } catch (ExecutionException e) {
+                log.warn("Parallel {} from {} failed: {}", operation, remote.getAetName(), e.getCause().toString());
+                totals.errors.add(e.getCause().toString());
+            }
+        }
+        // Anything a failed association left in the queue was never sent
+        for (Unit unit; (unit = queue.poll()) != null;) totals.fail(unit);
+        Map<String,Object> status = MuleBatchStoreSCU.summarize(totals.completed, totals.warning, totals.failed);
+        status.put("NumberOfRemainingSuboperations", totals.remaining);
+        if ((!totals.errors.isEmpty() || totals.uncounted > 0) && (int)status.get("Status") == Status.Success) {
+            status.put("Status", Status.OneOrMoreFailures);
+            status.put("StatusText", MuleDimseRSPHandler.getStatusText(Status.OneOrMoreFailures));
+        }
+        status.put("NumberOfRetrieves", units.size());
+        status.put("NumberOfFailedRetrieves", totals.errors.size());
+        if (!totals.errors.isEmpty()) status.put("RetrieveErrors", totals.errors);
+        if (totals.uncounted > 0) status.put("NumberOfUncountedFailedRetrieves", totals.uncounted);
+        if (progress != null) {
+            listener.progress(0, (int)status.get("Status"), totals.completed, totals.remaining, totals.failed, totals.warning);
+        }
+        return status;
+    }
+
+    private Totals work(Queue<Unit> queue, Progress progress) throws InterruptedException {
+        Totals totals = new Totals();
+        String cuid = remote.getInformationModelCuid(operation);
+        MuleSCU scu = new MuleSCU(runtime, operation, remote, store, remote.getSopClasses());
+        try {
+            for (Unit unit; (unit = queue.poll()) != null;) {
+                try {
+                    if (!scu.isOpen()) scu.open();
+                    RetrieveProgressListener unitListener = progress != null ? progress.listenerFor(unit) : null;
+                    RetrieveRSPHandler handler = "Get".equals(operation) ? scu.cget(cuid, unit.keys, unitListener, 0) : scu.cmove(cuid, unit.keys, unitListener, 0);
+                    scu.waitForOutstandingRSP();
+                    totals.add(handler.getResultStatus());
+                } catch (IOException | IncompatibleConnectionException | GeneralSecurityException | RuntimeException e) {
+                    log.warn("{} of {} from {} failed: {}", operation, unit.keys.getString(Tag.SeriesInstanceUID), remote.getAetName(), e.toString());
+                    totals.fail(unit);
+                    totals.errors.add(e.toString());
+                    // Opened again for the next retrieve
+                    scu.close();
+                }
+            }
+        } finally {
+            scu.close();
+        }
+        return totals;
+    }
+
+    private static boolean hasCount(Object value) {
+        return value instanceof Number || (value instanceof String && !((String)value).trim().isEmpty());
+    }
+
+    private static int parseCount(Object value) {
+        if (value instanceof Number) return ((Number)value).intValue();
+        if (value instanceof String) {
+            try {
+                return Integer.parseInt(((String)value).trim());
+            } catch (NumberFormatException ignore) { }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds the latest counts of each retrieve together. Remaining includes the expected instances
+     * of retrieves that haven't started.
+     */
+    private final class Progress {
+        // Completed, remaining, failed and warning of each retrieve that has responded
+        private final Map<Unit,int[]> counts = new IdentityHashMap<>();
+        private final long intervalNanos = Math.max(0, progressInterval) * 1000000L;
+        private int unstarted = 0;
+        private long lastProgress = 0;
+        private boolean progressed = false;
+
+        Progress(List<Unit> units) {
+            for (Unit unit : units) unstarted += Math.max(0, unit.expected);
+        }
+
+        RetrieveProgressListener listenerFor(Unit unit) {
+            return (messageId, status, completed, remaining, failed, warning) -> update(unit, completed, remaining, failed, warning);
+        }
+
+        private synchronized void update(Unit unit, int completed, int remaining, int failed, int warning) {
+            int[] latest = counts.get(unit);
+            if (latest == null) {
+                latest = new int[4];
+                counts.put(unit, latest);
+                unstarted -= Math.max(0, unit.expected);
+            }
+            latest[0] = completed;
+            latest[1] = Math.max(0, remaining);
+            latest[2] = failed;
+            latest[3] = warning;
+            long now = System.nanoTime();
+            if (progressed && now - lastProgress < intervalNanos) return;
+            progressed = true;
+            lastProgress = now;
+            int[] sum = { 0, unstarted, 0, 0 };
+            for (int[] c : counts.values()) {
+                for (int i = 0; i < sum.length; i++) sum[i] += c[i];
+            }
+            // Every retrieve's final response is pending for the whole, whose final counts are reported once all are done
+            listener.progress(0, Status.Pending, sum[0], sum[1], sum[2], sum[3]);
+        }
+    }
+
+    private static final class Totals {
+        int completed = 0;
+        int failed = 0;
+        int warning = 0;
+        int remaining = 0;
+        // Failed retrieves whose number of instances isn't known
+        int uncounted = 0;
+        final List<String> errors = new ArrayList<>();
+
+        void fail(Unit unit) {
+            if (unit.expected == Unit.UNKNOWN) uncounted++;
+            else failed += unit.expected;
+        }
+
+        void add(Map<String,Object> resultStatus) {
+            completed += parseCount(resultStatus.get("NumberOfCompletedSuboperations"));
+            failed += parseCount(resultStatus.get("NumberOfFailedSuboperations"));
+            warning += parseCount(resultStatus.get("NumberOfWarningSuboperations"));
+            remaining += Math.max(0, parseCount(resultStatus.get("NumberOfRemainingSuboperations")));
+        }
+
+        void add(Totals other) {
+            completed += other.completed;
+            failed += other.failed;
+            warning += other.warning;
+            remaining += other.remaining;
+            uncounted += other.uncounted;
+            errors.addAll(other.errors);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+
+/**
+ * PixelData that's still in its file. Frames are read only when asked for.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public class PixelDataHandle implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final File file;
+    private final int numberOfFrames;
+    // Native pixel data is one region of the file
+    private final long offset;
+    private final long frameLength;
+    // Encapsulated pixel data is a region per fragment, without the Basic Offset Table
+    private final List<long[]> fragments;
+    // Offset of each frame's first fragment item from the first fragment's, null without an offset table
+    private final long[] offsetTable;
+    // Index of each frame's first fragment, and the number of fragments at the end
+    private transient int[] firstFragments;
+
+    private PixelDataHandle(File file, int numberOfFrames, long offset, long frameLength, List<long[]> fragments, long[] offsetTable) {
+        this.file = file;
+        this.numberOfFrames = numberOfFrames;
+        this.offset = offset;
+        this.frameLength = frameLength;
+        this.fragments = fragments;
+        this.offsetTable = offsetTable;
+    }
+
+    /**
+     * @param data Read with bulk data as URIs
+     * @return null if PixelData isn't bulk data in a file
+     */
+    public static PixelDataHandle of(Attributes data) throws IOException {
+        Object value = data.getValue(Tag.PixelData);
+        int frames = Math.max(1, data.getInt(Tag.NumberOfFrames, 1));
+        if (value instanceof BulkData) {
+            BulkData bulk = (BulkData)value;
+            long bits = (long)data.getInt(Tag.Rows, 0) * data.getInt(Tag.Columns, 0)
+                    * data.getInt(Tag.SamplesPerPixel, 1) * data.getInt(Tag.BitsAllocated, 8);
+            long frameLength = bits > 0 ? (bits + 7) / 8 : bulk.longLength() / frames;
+            return new PixelDataHandle(fileOf(bulk), frames, bulk.offset(), frameLength, null, null);
+        }
+        if (value instanceof Fragments) {
+            Fragments frags = (Fragments)value;
+            File file = null;
+            List<long[]> regions = new ArrayList<>();
+            // The first item is the Basic Offset Table
+            for (int i = 1; i < frags.size(); i++) {
+                if (!(frags.get(i) instanceof BulkData)) return null;
+                BulkData bulk = (BulkData)frags.get(i);
+                if (file == null) file = fileOf(bulk);
+                regions.add(new long[] { bulk.offset(), bulk.longLength() });
+            }
+            if (file == null) return null;
+            return new PixelDataHandle(file, frames, -1L, -1L, regions, offsetTable(data, frags));
+        }
+        return null;
+    }
+
+    /**
+     * The Extended Offset Table when there is one, otherwise the Basic Offset Table. Null when both are empty.
+     */
+    private static long[] offsetTable(Attributes data, Fragments frags) throws IOException {
+        byte[] table = bytesOf(data.getValue(Tag.ExtendedOffsetTable));
+        if (table != null && table.length >= 8) return decode(table, 8);
+        table = bytesOf(frags.isEmpty() ? null : frags.get(0));
+        if (table != null && table.length >= 4) return decode(table, 4);
+        return null;
+    }
+
+    private static byte[] bytesOf(Object value) throws IOException {
+        if (value instanceof byte[]) return (byte[])value;
+        if (!(value instanceof BulkData)) return null;
+        BulkData bulk = (BulkData)value;
+        if (bulk.longLength() <= 0) return null;
+        try (FileChannel channel = FileChannel.open(fileOf(bulk).toPath(), StandardOpenOption.READ)) {
+            return read(channel, bulk.offset(), bulk.longLength());
+        }
+    }
+
+    private static long[] decode(byte[] table, int entryLength) {
+        // Encapsulated pixel data is always little endian
+        ByteBuffer buffer = ByteBuffer.wrap(table).order(ByteOrder.LITTLE_ENDIAN);
+        long[] offsets = new long[table.length / entryLength];
+        for (int i = 0; i < offsets.length; i++) offsets[i] = entryLength == 8 ? buffer.getLong() : buffer.getInt() & 0xFFFFFFFFL;
+        return offsets;
+    }
+
+    private static File fileOf(BulkData bulk) throws IOException {
+        try {
+            return new File(new URI(bulk.uriWithoutOffsetAndLength()));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("PixelData is not in a file: " + bulk.getURI(), e);
+        }
+    }
+
+    public File getFile() { return file; }
+    public int getNumberOfFrames() { return numberOfFrames; }
+    public boolean isEncapsulated() { return fragments != null; }
+
+    /**
+     * Reads one frame, still encoded when the Transfer Syntax is compressed
+     * @param index First frame is 0
+     */
+    public byte[] readFrame(int index) throws IOException {
+        if (index < 0 || index >= numberOfFrames) throw new IndexOutOfBoundsException("Frame " + index + " of " + numberOfFrames);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (fragments == null) return read(channel, offset + index * frameLength, frameLength);
+            int[] first = firstFragments(channel);
+            if (first[index + 1] - first[index] == 1) {
+                long[] region = fragments.get(first[index]);
+                return read(channel, region[0], region[1]);
+            }
+            // A frame split across fragments
+            long total = 0;
+            for (int i = first[index]; i < first[index + 1]; i++) total += fragments.get(i)[1];
+            ByteBuffer frame = ByteBuffer.allocate(toInt(total));
+            for (int i = first[index]; i < first[index + 1]; i++) frame.put(read(channel, fragments.get(i)[0], fragments.get(i)[1]));
+            return frame.array();
+        }
+    }
+
+    /**
+     * Works out which fragments hold each frame, from the offset table, then a fragment per frame, then
+     * one frame in every fragment, and last from where each frame's codestream starts
+     */
+    private synchronized int[] firstFragments(FileChannel channel) throws IOException {
+        if (firstFragments != null) return firstFragments;
+        int[] first = null;
+        if (offsetTable != null && offsetTable.length == numberOfFrames) first = byOffsetTable();
+        if (first == null && fragments.size() == numberOfFrames) {
+            first = new int[numberOfFrames + 1];
+            for (int i = 0; i <= numberOfFrames; i++) first[i] = i;
+        }
+        if (first == null && numberOfFrames == 1 && !fragments.isEmpty()) first = new int[] { 0, fragments.size() };
+        if (first == null && fragments.size() > numberOfFrames) first = byStartMarkers(channel);
+        if (first == null) throw new IOException("Unable to tell which of " + fragments.size() + " fragments hold each of " + numberOfFrames + " frames");
+        firstFragments = first;
+        return first;
+    }
+
+    private int[] byOffsetTable() {
+        int[] first = new int[numberOfFrames + 1];
+        long base = fragments.get(0)[0];
+        int f = 0;
+        for (int frame = 0; frame < numberOfFrames; frame++) {
+            while (f < fragments.size() && fragments.get(f)[0] - base < offsetTable[frame]) f++;
+            // An offset that isn't where a fragment starts means the table doesn't match the fragments
+            if (f == fragments.size() || fragments.get(f)[0] - base != offsetTable[frame] || (frame > 0 && f <= first[frame - 1])) return null;
+            first[frame] = f;
+        }
+        first[numberOfFrames] = fragments.size();
+        return first;
+    }
+
+    /**
+     * Without an offset table, frames start with a JPEG SOI or JPEG 2000 SOC marker
+     */
+    private int[] byStartMarkers(FileChannel channel) throws IOException {
+        int[] first = new int[numberOfFrames + 1];
+        int frame = 0;
+        for (int i = 0; i < fragments.size(); i++) {
+            long[] region = fragments.get(i);
+            if (region[1] < 2) continue;
+            byte[] marker = read(channel, region[0], 2);
+            if ((marker[0] & 0xFF) != 0xFF || ((marker[1] & 0xFF) != 0xD8 && (marker[1] & 0xFF) != 0x4F)) continue;
+            if (frame == numberOfFrames) return null;
+            first[frame++] = i;
+        }
+        if (frame != numberOfFrames || first[0] != 0) return null;
+        first[numberOfFrames] = fragments.size();
+        return first;
+    }
+
+    private static byte[] read(FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(toInt(length));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of file reading PixelData");
+        }
+        return buffer.array();
+    }
+
+    private static int toInt(long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8) throw new IOException("Frame of " + length + " bytes is too large");
+        return (int)length;
+    }
+}
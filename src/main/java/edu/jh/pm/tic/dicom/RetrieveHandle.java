@@ -0,0 +1,112 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.dcm4che3.net.Status;
+
+/**
+ * A C-MOVE or C-GET running in the background. The future completes with the same result status
+ * the blocking operation adds to the message, plus the saved Files of a C-GET.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public class RetrieveHandle {
+    public enum State { RUNNING, COMPLETED, CANCELED, FAILED }
+
+    public static final String RETRIEVE_ID = "RetrieveID";
+    private final String id = UUID.randomUUID().toString();
+    private final String operation;
+    private final String remoteAet;
+    private final long started = System.currentTimeMillis();
+    private final CompletableFuture<Map<String,Object>> future = new CompletableFuture<>();
+    private volatile long finished = 0;
+    private volatile MuleSCU scu = null;
+    private volatile RetrieveRSPHandler handler = null;
+
+    RetrieveHandle(String operation, String remoteAet) {
+        this.operation = operation;
+        this.remoteAet = remoteAet;
+    }
+
+    public String getId() { return id; }
+    public String getOperation() { return operation; }
+    public String getRemoteAet() { return remoteAet; }
+    public CompletableFuture<Map<String,Object>> getFuture() { return future; }
+    long getFinished() { return finished; }
+
+    void running(MuleSCU scu, RetrieveRSPHandler handler) {
+        this.scu = scu;
+        this.handler = handler;
+    }
+
+    void complete(Map<String,Object> result) {
+        finished = System.currentTimeMillis();
+        scu = null;
+        future.complete(result);
+    }
+
+    void fail(Throwable cause) {
+        finished = System.currentTimeMillis();
+        scu = null;
+        future.completeExceptionally(cause);
+    }
+
+    public State getState() {
+        if (!future.isDone()) return State.RUNNING;
+        if (future.isCompletedExceptionally()) return State.FAILED;
+        Object status = future.getNow(null).get("Status");
+        return (status instanceof Integer && (int)status == Status.Cancel) ? State.CANCELED : State.COMPLETED;
+    }
+
+    /**
+     * Sends a C-CANCEL, the retrieve completes once the SCP responds
+     *
+     * @return false when the retrieve has already finished
+     */
+    public boolean cancel() throws IOException {
+        MuleSCU running = scu;
+        RetrieveRSPHandler rspHandler = handler;
+        if (running == null || rspHandler == null || future.isDone()) return false;
+        running.cancel(rspHandler);
+        return true;
+    }
+
+    /**
+     * The state and timings, with the result once it has finished or the counts so far while it's running
+     */
+    public Map<String,Object> getStatus() {
+        Map<String,Object> status = new HashMap<>();
+        if (future.isDone() && !future.isCompletedExceptionally()) status.putAll(future.getNow(null));
+        status.put(RETRIEVE_ID, id);
+        status.put("Operation", operation);
+        status.put("RemoteApplicationEntityTitle", remoteAet);
+        status.put("State", getState().name());
+        status.put("Started", Instant.ofEpochMilli(started).toString());
+        if (finished > 0) status.put("Finished", Instant.ofEpochMilli(finished).toString());
+        RetrieveRSPHandler rspHandler = handler;
+        if (!future.isDone() && rspHandler != null) {
+            status.put("NumberOfCompletedSuboperations", rspHandler.getCompleted());
+            status.put("NumberOfRemainingSuboperations", rspHandler.getRemaining());
+            status.put("NumberOfFailedSuboperations", rspHandler.getFailed());
+            status.put("NumberOfWarningSuboperations", rspHandler.getWarning());
+        }
+        if (future.isCompletedExceptionally()) {
+            try {
+                future.getNow(null);
+            } catch (RuntimeException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                status.put("Error", cause.toString());
+            }
+        }
+        return status;
+    }
+}
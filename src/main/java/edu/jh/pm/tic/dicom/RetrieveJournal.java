@@ -0,0 +1,170 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only record of the instances a retrieve expects and those that have arrived, so an
+ * interrupted retrieve can be resumed with only the missing instances. It's a text file with an
+ * "E study series instance" line for every expected instance, then an "R instance" line as each arrives.
+ * A line cut short by a crash is ignored.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class RetrieveJournal implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(RetrieveJournal.class);
+    private final Path file;
+    private final Map<String, String[]> expected = new LinkedHashMap<>();
+    private final Set<String> received = new HashSet<>();
+    private final Writer out;
+
+    private RetrieveJournal(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+                for (String line; (line = in.readLine()) != null;) {
+                    String[] fields = line.split(" ");
+                    if (fields.length == 4 && fields[0].equals("E")) expected.put(fields[3], fields);
+                    else if (fields.length == 2 && fields[0].equals("R")) received.add(fields[1]);
+                }
+            }
+        }
+        Files.createDirectories(file.getParent());
+        this.out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Names the journal of a retrieve after the operation, remote AE, study and a digest of the keys, so
+     * retrieves of different series or instances of a study don't share one. Only keys with values count,
+     * and the values of each are sorted, so keys that select the same instances name the same journal.
+     */
+    static String fileName(String operation, String aetName, Attributes keys) {
+        StringBuilder normalized = new StringBuilder();
+        for (int tag : keys.tags()) {
+            if (tag == Tag.QueryRetrieveLevel || keys.getVR(tag) == VR.SQ) continue;
+            String[] values = keys.getStrings(tag);
+            if (values == null) continue;
+            values = Arrays.stream(values).filter(v -> v != null && !v.isEmpty()).sorted().toArray(String[]::new);
+            if (values.length == 0) continue;
+            normalized.append(Integer.toHexString(tag)).append('=').append(String.join("\\", values)).append('\n');
+        }
+        StringBuilder digest = new StringBuilder();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(normalized.toString().getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 8; i++) digest.append(String.format("%02x", hash[i]));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+        return operation + "-" + aetName.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + keys.getString(Tag.StudyInstanceUID) + "-" + digest + ".journal";
+    }
+
+    /**
+     * Opens the journal left by an earlier retrieve
+     */
+    static RetrieveJournal open(Path file) throws IOException {
+        return new RetrieveJournal(file);
+    }
+
+    /**
+     * Starts a journal for a retrieve of the given instances, replacing any earlier one
+     *
+     * @param instances C-FIND results with their SeriesInstanceUID and SOPInstanceUID
+     * @param study StudyInstanceUID of results without one, since not every archive returns it with its instances
+     */
+    static RetrieveJournal create(Path file, List<Map<String,Object>> instances, String study) throws IOException {
+        Files.deleteIfExists(file);
+        RetrieveJournal journal = new RetrieveJournal(file);
+        synchronized (journal) {
+            for (Map<String,Object> instance : instances) {
+                String instanceStudy = (String)instance.get("StudyInstanceUID");
+                if (instanceStudy == null || instanceStudy.isEmpty()) instanceStudy = study;
+                String[] fields = { "E", instanceStudy, (String)instance.get("SeriesInstanceUID"), (String)instance.get("SOPInstanceUID") };
+                if (fields[1] == null || fields[2] == null || fields[3] == null || journal.expected.containsKey(fields[3])) continue;
+                journal.expected.put(fields[3], fields);
+                journal.out.write(String.join(" ", fields));
+                journal.out.write('\n');
+            }
+            journal.out.flush();
+        }
+        return journal;
+    }
+
+    Path getFile() { return file; }
+
+    /**
+     * Records an instance as arrived. Instances the journal doesn't expect, or already has, are ignored.
+     */
+    synchronized void received(String iuid) {
+        if (iuid == null || !expected.containsKey(iuid) || !received.add(iuid)) return;
+        try {
+            out.write("R ");
+            out.write(iuid);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            log.warn("Unable to record {} in {}: {}", iuid, file, e.getMessage());
+        }
+    }
+
+    synchronized int getExpected() { return expected.size(); }
+
+    synchronized int getReceived() { return received.size(); }
+
+    synchronized boolean isComplete() { return received.containsAll(expected.keySet()); }
+
+    /**
+     * Expected instances that haven't arrived, in the form ParallelRetrieve.instanceUnits takes
+     */
+    synchronized List<Map<String,Object>> getMissing() {
+        List<Map<String,Object>> missing = new ArrayList<>();
+        for (String[] fields : expected.values()) {
+            if (received.contains(fields[3])) continue;
+            Map<String,Object> instance = new HashMap<>();
+            instance.put("StudyInstanceUID", fields[1]);
+            instance.put("SeriesInstanceUID", fields[2]);
+            instance.put("SOPInstanceUID", fields[3]);
+            missing.add(instance);
+        }
+        return missing;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Closes and removes the journal once the retrieve is complete
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+}
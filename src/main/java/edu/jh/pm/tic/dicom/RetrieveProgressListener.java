@@ -0,0 +1,20 @@
+package edu.jh.pm.tic.dicom;
+
+/**
+ * Receives the sub-operation counts of a C-MOVE or C-GET as its responses arrive. Called on the
+ * thread reading the association, so it should return quickly.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public interface RetrieveProgressListener {
+	/***
+	 * Called for pending responses, no more often than the progress interval, and always for the final response
+	 * @param status Status of the response, pending until the final one
+	 * @param remaining Sub-operations remaining, -1 when the SCP doesn't report it
+	 */
+	public void progress(int messageId, int status, int completed, int remaining, int failed, int warning);
+}
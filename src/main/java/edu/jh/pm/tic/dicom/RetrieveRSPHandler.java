@@ -0,0 +1,127 @@
+package edu.jh.pm.tic.dicom;
+
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Status;
+
+/**
+ * Handles C-MOVE and C-GET responses. Pending responses only update the sub-operation counters and
+ * notify the progress listener. The final response is merged into the result status as usual.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class RetrieveRSPHandler extends MuleDimseRSPHandler {
+    private final RetrieveProgressListener listener;
+    private final long intervalNanos;
+    private long lastProgress = 0;
+    private boolean progressed = false;
+    private volatile int completed = 0;
+    private volatile int remaining = -1;
+    private volatile int failed = 0;
+    private volatile int warning = 0;
+    private Runnable onFinished = null;
+    private boolean finished = false;
+
+    public RetrieveRSPHandler(int msgId) {
+        this(msgId, null, 0);
+    }
+
+    /**
+     * @param listener Notified of progress, may be null
+     * @param progressInterval Minimum milliseconds between pending notifications, 0 notifies every response
+     */
+    public RetrieveRSPHandler(int msgId, RetrieveProgressListener listener, int progressInterval) {
+        super(msgId);
+        this.listener = listener;
+        this.intervalNanos = Math.max(0, progressInterval) * 1000000L;
+    }
+
+    public int getCompleted() { return completed; }
+    public int getRemaining() { return remaining; }
+    public int getFailed() { return failed; }
+    public int getWarning() { return warning; }
+
+    /**
+     * Runs once after the final response has been merged, or the association closed without one.
+     * It's called on the thread reading the association, so it mustn't wait for the association.
+     */
+    public synchronized void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+        if (finished) onFinished.run();
+    }
+
+    private void finished() {
+        Runnable run;
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            run = onFinished;
+        }
+        if (run != null) run.run();
+    }
+
+    @Override
+    public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+        super.onDimseRSP(as, cmd, data);
+        if (cmd == null || cmd.isEmpty() || Status.isPending(cmd.getInt(Tag.Status, -1))) return;
+        // Counts the final response leaves out keep the values of the last pending one
+        Map<String,Object> resultStatus = getResultStatus();
+        resultStatus.putIfAbsent("NumberOfCompletedSuboperations", completed);
+        resultStatus.putIfAbsent("NumberOfFailedSuboperations", failed);
+        resultStatus.putIfAbsent("NumberOfWarningSuboperations", warning);
+        resultStatus.putIfAbsent("NumberOfRemainingSuboperations", remaining);
+        finished();
+    }
+
+    @Override
+    protected boolean onProgress(Association as, Attributes cmd) {
+        int rspStatus = cmd.getInt(Tag.Status, -1);
+        boolean pending = Status.isPending(rspStatus);
+        completed = cmd.getInt(Tag.NumberOfCompletedSuboperations, completed);
+        failed = cmd.getInt(Tag.NumberOfFailedSuboperations, failed);
+        warning = cmd.getInt(Tag.NumberOfWarningSuboperations, warning);
+        // Final responses usually leave Remaining out
+        remaining = cmd.getInt(Tag.NumberOfRemainingSuboperations, pending ? remaining : 0);
+        if (listener != null) {
+            long now = System.nanoTime();
+            if (!pending || !progressed || now - lastProgress >= intervalNanos) {
+                progressed = true;
+                lastProgress = now;
+                listener.progress(getMessageID(), rspStatus, completed, remaining, failed, warning);
+            }
+        }
+        if (!pending) return false;
+        setStatus(rspStatus);
+        return true;
+    }
+
+    @Override
+    public void onClose(Association as) {
+        super.onClose(as);
+        try {
+            reportLastProgress();
+        } finally {
+            finished();
+        }
+    }
+
+    private void reportLastProgress() {
+        Map<String,Object> resultStatus = getResultStatus();
+        if (getStatus() < 0 || !Status.isPending(getStatus()) || resultStatus.containsKey("NumberOfCompletedSuboperations")) return;
+        // Closed before the final response, so report the last counts that were received
+        resultStatus.put("MessageID", getMessageID());
+        resultStatus.put("Status", getStatus());
+        resultStatus.put("StatusText", getStatusText());
+        resultStatus.put("NumberOfCompletedSuboperations", completed);
+        resultStatus.put("NumberOfFailedSuboperations", failed);
+        resultStatus.put("NumberOfWarningSuboperations", warning);
+        if (remaining >= 0) resultStatus.put("NumberOfRemainingSuboperations", remaining);
+    }
+}
@@ -0,0 +1,114 @@
+package edu.jh.pm.tic.dicom;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mule.api.callback.SourceCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retrieves started in the background, kept for a while after they finish so their status can
+ * still be read. Finishing a retrieve releases its association, which can't be done from the thread
+ * reading it, so completions run on a small pool of their own.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class RetrieveRegistry {
+    private static final Logger log = LoggerFactory.getLogger(RetrieveRegistry.class);
+    private final Map<String, RetrieveHandle> handles = new ConcurrentHashMap<>();
+    private final long retentionMillis;
+    private final ExecutorService completionExecutor;
+    private volatile SourceCallback callback = null;
+
+    /**
+     * @param retentionSeconds How long finished retrieves are kept
+     */
+    RetrieveRegistry(int retentionSeconds) {
+        this.retentionMillis = Math.max(0, retentionSeconds) * 1000L;
+        AtomicInteger count = new AtomicInteger();
+        this.completionExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "dicom-retrieve-completion-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Flow that receives the status of every retrieve once it finishes, may be null
+     */
+    void setCallback(SourceCallback callback) { this.callback = callback; }
+
+    RetrieveHandle create(String operation, String remoteAet) {
+        prune();
+        RetrieveHandle handle = new RetrieveHandle(operation, remoteAet);
+        handles.put(handle.getId(), handle);
+        return handle;
+    }
+
+    RetrieveHandle get(String id) {
+        return id != null ? handles.get(id) : null;
+    }
+
+    void remove(RetrieveHandle handle) {
+        handles.remove(handle.getId());
+    }
+
+    /**
+     * Completes the handle with the result of the completion, run on the completion pool, then publishes its status
+     */
+    void finish(RetrieveHandle handle, Callable<Map<String,Object>> completion) {
+        try {
+            completionExecutor.execute(() -> {
+                try {
+                    handle.complete(completion.call());
+                } catch (Exception e) {
+                    log.warn("Retrieve {} failed: {}", handle.getId(), e.getMessage());
+                    handle.fail(e);
+                }
+                publish(handle);
+            });
+        } catch (RejectedExecutionException e) {
+            handle.fail(new IllegalStateException("Connector stopped before retrieve " + handle.getId() + " finished"));
+        }
+    }
+
+    private void publish(RetrieveHandle handle) {
+        SourceCallback target = callback;
+        if (target == null) return;
+        try {
+            target.process(handle.getStatus());
+        } catch (Exception e) {
+            log.warn("Retrieve Completed flow failed for {}: {}", handle.getId(), e.getMessage());
+        }
+    }
+
+    private void prune() {
+        long expired = System.currentTimeMillis() - retentionMillis;
+        for (Iterator<RetrieveHandle> it = handles.values().iterator(); it.hasNext();) {
+            long finished = it.next().getFinished();
+            if (finished > 0 && finished <= expired) it.remove();
+        }
+    }
+
+    void shutdown() {
+        completionExecutor.shutdown();
+        try {
+            if (!completionExecutor.awaitTermination(5, TimeUnit.SECONDS)) completionExecutor.shutdownNow();
+        } catch (InterruptedException e) {
+            completionExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package edu.jh.pm.tic.dicom;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jh.pm.tic.dicom.config.ConnectorConfig;
+import edu.jh.pm.tic.dicom.metrics.ConnectorMetrics;
+import edu.jh.pm.tic.dicom.metrics.RemoteMetrics;
+import edu.jh.pm.tic.dicom.store.MuleCStoreSCP;
+import edu.jh.pm.tic.dicom.trace.AssociationTrace;
+import edu.jh.pm.tic.dicom.trace.TraceRecorder;
+
+/**
+ * Device, Application Entity and thread pools shared by every SCU operation of a connector.
+ * Created when the connector starts and shut down when it stops.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class SCURuntime {
+    private static final Logger log = LoggerFactory.getLogger(SCURuntime.class);
+    private final Device device = new Device("MuleSCU");
+    private final ApplicationEntity ae;
+    private final ThreadPoolExecutor executorService;
+    private final ScheduledThreadPoolExecutor scheduledExecutorService;
+    private final Map<String, Connection> connections = new HashMap<>();
+    private final ConnectorMetrics metrics;
+    private final TraceRecorder tracer;
+
+    public SCURuntime(ConnectorConfig config) {
+        this(config, null, null);
+    }
+
+    /**
+     * @param metrics Records latencies and counters of every SCU operation, may be null
+     * @param tracer Traces sampled associations, may be null
+     */
+    public SCURuntime(ConnectorConfig config, ConnectorMetrics metrics, TraceRecorder tracer) {
+        this.metrics = metrics;
+        this.tracer = tracer;
+        long threadWait = Math.max(0, config.getScuThreadWait());
+        executorService = new ThreadPoolExecutor(Math.max(0, config.getScuCoreThreads()), Math.max(1, config.getScuMaxThreads()),
+                60L, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory("dicom-scu"), (r, executor) -> admit(r, executor, threadWait));
+        scheduledExecutorService = new ScheduledThreadPoolExecutor(Math.max(1, config.getScuScheduledThreads()), threadFactory("dicom-scu-scheduler"));
+        scheduledExecutorService.setRemoveOnCancelPolicy(true);
+        ae = new ApplicationEntity(config.getAetName());
+        device.addApplicationEntity(ae);
+        // C-STORE sub-operations of a C-GET are routed to the store registered on their association
+        device.setDimseRQHandler(new MuleCStoreSCP(null, null, metrics).createServiceRegistry());
+        device.setExecutor(executorService);
+        device.setScheduledExecutor(scheduledExecutorService);
+    }
+
+    /**
+     * Once every SCU thread is busy, waits up to threadWait milliseconds for one to free up
+     * @throws RejectedExecutionException No thread freed up in time, or the runtime is stopped
+     */
+    private static void admit(Runnable r, ThreadPoolExecutor executor, long threadWait) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(threadWait);
+        try {
+            while (!executor.isShutdown()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                // Waits in short steps so a stop isn't missed
+                if (executor.getQueue().offer(r, Math.min(remaining, TimeUnit.SECONDS.toNanos(1)), TimeUnit.NANOSECONDS)) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (executor.isShutdown()) throw new RejectedExecutionException("SCU runtime is stopped");
+        throw new RejectedExecutionException("SCU thread limit of " + executor.getMaximumPoolSize() + " reached");
+    }
+
+    public Device getDevice() { return device; }
+    public ApplicationEntity getApplicationEntity() { return ae; }
+    public ScheduledThreadPoolExecutor getScheduledExecutor() { return scheduledExecutorService; }
+    public ExecutorService getExecutor() { return executorService; }
+
+    /**
+     * Metrics of a remote AE, null when metrics are off
+     */
+    public RemoteMetrics getMetrics(String remoteAet) {
+        return metrics != null ? metrics.forRemote(remoteAet) : null;
+    }
+
+    /**
+     * Starts tracing an association to a remote AE, null when tracing is off or it isn't sampled
+     */
+    public AssociationTrace startTrace(String role, String remoteAet) {
+        return tracer != null ? tracer.start(role, ae.getAETitle(), remoteAet) : null;
+    }
+
+    public Connection getConnection(int storeTimeout) {
+        return getConnection(storeTimeout, 0);
+    }
+
+    /**
+     * Returns the local connection for a C-STORE timeout and asynchronous operations window, creating it on first use
+     */
+    public synchronized Connection getConnection(int storeTimeout, int maxOpsInvoked) {
+        String key = storeTimeout + ":" + maxOpsInvoked;
+        Connection conn = connections.get(key);
+        if (conn == null) {
+            conn = new Connection();
+            conn.setReceivePDULength(16378);
+            conn.setSendPDULength(16378);
+            conn.setMaxOpsInvoked(maxOpsInvoked);
+            conn.setMaxOpsPerformed(0);
+            conn.setPackPDV(true);
+            conn.setConnectTimeout(0);
+            conn.setRequestTimeout(0);
+            conn.setAcceptTimeout(0);
+            conn.setReleaseTimeout(0);
+            conn.setSendTimeout(0);
+            conn.setStoreTimeout(storeTimeout);
+            conn.setResponseTimeout(0);
+            conn.setIdleTimeout(0);
+            conn.setSocketCloseDelay(50);
+            conn.setSendBufferSize(0);
+            conn.setReceiveBufferSize(0);
+            conn.setTcpNoDelay(true);
+            device.addConnection(conn);
+            ae.addConnection(conn);
+            connections.put(key, conn);
+        }
+        return conn;
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+        scheduledExecutorService.shutdownNow();
+        try {
+            if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) executorService.shutdownNow();
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.debug("Shut down SCU runtime for {}", ae.getAETitle());
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
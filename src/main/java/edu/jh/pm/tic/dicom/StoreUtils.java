@@ -1,12 +1,24 @@
 package edu.jh.pm.tic.dicom;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.dcm4che3.data.Attributes;
@@ -27,6 +39,12 @@ import org.slf4j.LoggerFactory;
  */
 public class StoreUtils {
 	private static final Logger log = LoggerFactory.getLogger(StoreUtils.class);
+	private static final long TRANSFER_SIZE = 8L * 1024 * 1024;
+	private static final int DIRECT_BUFFER_SIZE = 256 * 1024;
+	// Direct buffers are expensive to allocate and live outside the heap, so a few are kept for reuse
+	private static final int MAX_DIRECT_BUFFERS = 32;
+	private static final ConcurrentLinkedQueue<ByteBuffer> DIRECT_BUFFERS = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger DIRECT_BUFFER_COUNT = new AtomicInteger();
 	private StoreUtils() { }
 
 	/**
@@ -53,26 +71,127 @@ public class StoreUtils {
         return fmi;
 	}
 	
+	/**
+	 * Create File Meta Information from the Inbound Properties of a received C-STORE
+	 * @param inboundProperties Properties set by MuleCStoreSCP
+	 * @return
+	 */
+	public static Attributes createFileMetaInformation(Map<String, Object> inboundProperties) {
+		String iuid = (String)inboundProperties.getOrDefault("AffectedSOPInstanceUID", null);
+		String cuid = (String)inboundProperties.getOrDefault("AffectedSOPClassUID", null);
+		String tsuid = (String)inboundProperties.getOrDefault("TransferSyntaxUID", null);
+		String icuid = (String)inboundProperties.getOrDefault("ImplementationClassUID", null);
+		String ivn = (String)inboundProperties.getOrDefault("ImplementationVersionName", null);
+		String aet = (String)inboundProperties.getOrDefault("SourceApplicationEntityTitle", null);
+		return createFileMetaInformation(iuid, cuid, tsuid, icuid, ivn, aet);
+	}
+
 	public static void writeTo(OutputStream file, Attributes content, Attributes fmi) throws IOException {
-		try (DicomOutputStream out = new DicomOutputStream(file, UID.ExplicitVRLittleEndian)) {
+		try (DicomOutputStream out = new DicomOutputStream(buffered(file), UID.ExplicitVRLittleEndian)) {
 			out.writeDataset(fmi,  content);
 		}		
 	}
 	
 	public static void writeTo(OutputStream file, byte[] content, Attributes fmi) throws IOException {
-		try (DicomOutputStream out = new DicomOutputStream(file, UID.ExplicitVRLittleEndian)) {
+		try (DicomOutputStream out = new DicomOutputStream(buffered(file), UID.ExplicitVRLittleEndian)) {
 			out.writeFileMetaInformation(fmi);
             out.write(content);
 		}
 	}
 	
 	public static void writeTo(OutputStream file, PDVInputStream content, Attributes fmi) throws IOException {
-		try (DicomOutputStream out = new DicomOutputStream(file, UID.ExplicitVRLittleEndian)) {
+		try (DicomOutputStream out = new DicomOutputStream(buffered(file), UID.ExplicitVRLittleEndian)) {
 			out.writeFileMetaInformation(fmi);
 			content.copyTo(out);
 		}
 	}
 
+	private static OutputStream buffered(OutputStream out) {
+		return out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 65536);
+	}
+
+	/**
+	 * Encodes the preamble, DICM prefix and File Meta Information that start a DICOM file
+	 */
+	public static byte[] encodeFileMetaInformation(Attributes fmi) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream(512);
+		try (DicomOutputStream out = new DicomOutputStream(header, UID.ExplicitVRLittleEndian)) {
+			out.writeFileMetaInformation(fmi);
+		}
+		return header.toByteArray();
+	}
+
+	/**
+	 * Writes a DICOM file whose dataset is already encoded in the File Meta Information's Transfer Syntax
+	 * @param content Dataset bytes. A FileInputStream is copied with FileChannel.transferFrom.
+	 * @param sizeHint Expected dataset length to preallocate, 0 if unknown
+	 * @return Length of the file
+	 */
+	public static long writeTo(Path file, Attributes fmi, InputStream content, long sizeHint) throws IOException {
+		ReadableByteChannel channel = content instanceof FileInputStream ? ((FileInputStream)content).getChannel() : Channels.newChannel(content);
+		return writeTo(file, fmi, channel, sizeHint);
+	}
+
+	/**
+	 * Writes a DICOM file whose dataset is already encoded in the File Meta Information's Transfer Syntax.
+	 * The File Meta Information is written once, then the dataset is moved with FileChannel.transferFrom
+	 * when the source is a FileChannel, or through pooled direct buffers otherwise.
+	 * @param content Dataset bytes, read to the end but not closed
+	 * @param sizeHint Expected dataset length to preallocate, 0 if unknown
+	 * @return Length of the file
+	 */
+	public static long writeTo(Path file, Attributes fmi, ReadableByteChannel content, long sizeHint) throws IOException {
+		byte[] header = encodeFileMetaInformation(fmi);
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			if (sizeHint > 0) {
+				// Extending the file up front lets the file system allocate its blocks together
+				out.write(ByteBuffer.wrap(new byte[1]), header.length + sizeHint - 1);
+			}
+			ByteBuffer fmiBuffer = ByteBuffer.wrap(header);
+			while (fmiBuffer.hasRemaining()) out.write(fmiBuffer);
+			long position = out.position();
+			if (content instanceof FileChannel) {
+				long count;
+				while ((count = out.transferFrom(content, position, TRANSFER_SIZE)) > 0) position += count;
+			} else {
+				ByteBuffer buffer = acquireDirectBuffer();
+				try {
+					while (content.read(buffer) >= 0 || buffer.position() > 0) {
+						buffer.flip();
+						position += out.write(buffer, position);
+						buffer.compact();
+					}
+				} finally {
+					releaseDirectBuffer(buffer);
+				}
+			}
+			if (out.size() > position) out.truncate(position);
+			return position;
+		}
+	}
+
+	private static ByteBuffer acquireDirectBuffer() {
+		ByteBuffer buffer = DIRECT_BUFFERS.poll();
+		if (buffer == null) return ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+		DIRECT_BUFFER_COUNT.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	private static void releaseDirectBuffer(ByteBuffer buffer) {
+		if (DIRECT_BUFFER_COUNT.incrementAndGet() <= MAX_DIRECT_BUFFERS) DIRECT_BUFFERS.offer(buffer);
+		else DIRECT_BUFFER_COUNT.decrementAndGet();
+	}
+
+	/**
+	 * Forces a file's contents to disk
+	 */
+	public static void sync(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
 	public static void deleteFolder(String outputFilePath) {
 		if (outputFilePath == null || outputFilePath.isEmpty()) return;
 		try {
@@ -0,0 +1,162 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands C-FIND results to the flow as they arrive. At most prefetch results are held, after that the
+ * association's reader waits for the flow, which stops reading PDUs and lets TCP slow down the remote.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class StreamingFindRSPHandler extends MuleDimseRSPHandler {
+    private static final Logger log = LoggerFactory.getLogger(StreamingFindRSPHandler.class);
+    // A flow that stops iterating never drains the queue, so the query is canceled after this long
+    private static final long STALL_TIMEOUT_MINUTES = 5;
+    private static final Map<String,Object> END = Collections.emptyMap();
+    private final BlockingQueue<Map<String,Object>> queue;
+    private final Executor executor;
+    private volatile boolean abandoned = false;
+    private boolean ended = false;
+    private ResultIterator iterator;
+
+    public StreamingFindRSPHandler(int msgId, int prefetch, Executor executor) {
+        super(msgId);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, prefetch));
+        this.executor = executor;
+    }
+
+    /**
+     * @param onClose Releases the association, called once when iteration ends or the iterator is closed
+     */
+    public synchronized ResultIterator iterator(Association as, Closeable onClose) {
+        if (iterator == null) iterator = new ResultIterator(as, onClose);
+        return iterator;
+    }
+
+    @Override
+    public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+        super.onDimseRSP(as, cmd, data);
+        if (!Status.isPending(getStatus())) end();
+    }
+
+    @Override
+    protected void onResult(Association as, Map<String,Object> result) {
+        if (abandoned) return;
+        try {
+            if (!queue.offer(result, STALL_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                log.warn("C-FIND results not consumed for {} minutes, canceling", STALL_TIMEOUT_MINUTES);
+                abandoned = true;
+                cancelOnce(as);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandoned = true;
+        }
+    }
+
+    @Override
+    public void onClose(Association as) {
+        super.onClose(as);
+        end();
+    }
+
+    private void end() {
+        synchronized (this) {
+            if (ended) return;
+            ended = true;
+        }
+        try {
+            if (!abandoned && queue.offer(END, STALL_TIMEOUT_MINUTES, TimeUnit.MINUTES)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Nobody is reading, so release the association here
+        ResultIterator it;
+        synchronized (this) {
+            it = iterator;
+        }
+        if (it != null) executor.execute(it::close);
+    }
+
+    /**
+     * Blocks in hasNext until the next result or the final response arrives.
+     * Once iteration ends the association is released and getResultStatus() holds the final status.
+     */
+    public final class ResultIterator implements Iterator<Map<String,Object>>, Closeable {
+        private final Association as;
+        private final Closeable onClose;
+        private Map<String,Object> next;
+        private volatile boolean closed = false;
+
+        private ResultIterator(Association as, Closeable onClose) {
+            this.as = as;
+            this.onClose = onClose;
+        }
+
+        public Map<String,Object> getResultStatus() {
+            return StreamingFindRSPHandler.this.getResultStatus();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) return true;
+            if (closed) return false;
+            try {
+                Map<String,Object> result = queue.take();
+                if (result == END) {
+                    close();
+                    return false;
+                }
+                next = result;
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return false;
+            }
+        }
+
+        @Override
+        public Map<String,Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Map<String,Object> result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            abandoned = true;
+            // Closed before the final response, so the remote can stop searching
+            synchronized (StreamingFindRSPHandler.this) {
+                if (!ended) cancelOnce(as);
+            }
+            queue.clear();
+            try {
+                onClose.close();
+            } catch (Exception e) {
+                log.warn("Unable to close C-FIND association: {}", e.getMessage());
+            }
+        }
+    }
+}
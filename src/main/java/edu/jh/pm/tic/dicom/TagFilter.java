@@ -0,0 +1,184 @@
+package edu.jh.pm.tic.dicom;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.io.DicomInputHandler;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.util.TagUtils;
+
+/**
+ * Selects the top-level tags that are kept from a dataset. With an include list, reading stops
+ * once the highest included tag has been passed.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public final class TagFilter {
+    private final int[] include;
+    private final int[] exclude;
+    private final int stopTag;
+
+    private TagFilter(int[] include, int[] exclude) {
+        this.include = include;
+        this.exclude = exclude;
+        // Private Creators sort before the tags they reserve, so the highest included tag is the last needed
+        this.stopTag = include != null && include.length > 0 ? include[include.length - 1] : -1;
+    }
+
+    /**
+     * @param include Comma separated tag names to keep, blank keeps all
+     * @param exclude Comma separated tag names to drop
+     * @return null when both lists are blank
+     * @throws IllegalArgumentException A name isn't a tag or a known keyword
+     */
+    public static TagFilter parse(String include, String exclude) {
+        int[] includeTags = parseTags(include);
+        int[] excludeTags = parseTags(exclude);
+        if (includeTags == null && excludeTags == null) return null;
+        return new TagFilter(includeTags, excludeTags);
+    }
+
+    private static int[] parseTags(String names) {
+        if (names == null || names.trim().isEmpty()) return null;
+        String[] parts = names.split(",");
+        int[] tags = new int[parts.length];
+        int count = 0;
+        for (String part : parts) {
+            String name = part.trim();
+            if (!name.isEmpty()) tags[count++] = TagNames.tagOf(name);
+        }
+        tags = Arrays.copyOf(tags, count);
+        // Sorted as unsigned, the order tags appear in a dataset
+        for (int i = 0; i < count; i++) tags[i] ^= Integer.MIN_VALUE;
+        Arrays.sort(tags);
+        for (int i = 0; i < count; i++) tags[i] ^= Integer.MIN_VALUE;
+        return tags;
+    }
+
+    private static boolean contains(int[] tags, int tag) {
+        for (int t : tags) {
+            if (t == tag) return true;
+        }
+        return false;
+    }
+
+    public boolean accepts(int tag) {
+        if (exclude != null && contains(exclude, tag)) return false;
+        if (include == null) return true;
+        if (contains(include, tag)) return true;
+        // Private Creators are kept for the included private tags they reserve
+        if (TagUtils.isPrivateCreator(tag)) {
+            for (int t : include) {
+                if (TagUtils.isPrivateTag(t) && TagUtils.creatorTagOf(t) == tag) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The tag after which nothing more is kept, or -1 to read everything
+     */
+    public int getStopTag() { return stopTag; }
+
+    /**
+     * Copies the accepted tags, or returns data itself if all are accepted
+     */
+    public Attributes apply(Attributes data) {
+        int[] tags = data.tags();
+        int[] selected = new int[tags.length];
+        int count = 0;
+        for (int tag : tags) {
+            if (accepts(tag)) selected[count++] = tag;
+        }
+        if (count == tags.length) return data;
+        return new Attributes(data, Arrays.copyOf(selected, count));
+    }
+
+    /**
+     * Reads a dataset, stopping after the stop tag, and applies the filter.
+     * A stream that's stopped early is left in the middle of the dataset.
+     */
+    public Attributes read(DicomInputStream dis) throws IOException {
+        return apply(read(dis, stopTag));
+    }
+
+    /**
+     * Reads a dataset up to and including stopTag, or all of it when stopTag is -1
+     */
+    static Attributes read(DicomInputStream dis, int stopTag) throws IOException {
+        if (stopTag == -1) return dis.readDataset();
+        dis.readFileMetaInformation();
+        Attributes attrs = new Attributes(dis.bigEndian(), 64);
+        dis.setDicomInputHandler(new StopHandler(dis, attrs, stopTag));
+        try {
+            dis.readAttributes(attrs, -1, -1);
+        } catch (StopReading e) {
+            // Passed the stop tag
+        } finally {
+            dis.setDicomInputHandler(dis);
+        }
+        attrs.trimToSize();
+        return attrs;
+    }
+
+    private static final class StopReading extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StopReading() {
+            super("Stop tag reached", null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Stops reading at the first top-level tag after stopTag, otherwise reads as usual
+     */
+    private static final class StopHandler implements DicomInputHandler {
+        private final DicomInputStream dis;
+        private final Attributes root;
+        private final int stopTag;
+
+        StopHandler(DicomInputStream dis, Attributes root, int stopTag) {
+            this.dis = dis;
+            this.root = root;
+            this.stopTag = stopTag;
+        }
+
+        @Override
+        public void readValue(DicomInputStream in, Attributes attrs) throws IOException {
+            if (attrs == root && Integer.compareUnsigned(in.tag(), stopTag) > 0) throw new StopReading();
+            dis.readValue(in, attrs);
+        }
+
+        @Override
+        public void readValue(DicomInputStream in, Sequence seq) throws IOException {
+            dis.readValue(in, seq);
+        }
+
+        @Override
+        public void readValue(DicomInputStream in, Fragments frags) throws IOException {
+            dis.readValue(in, frags);
+        }
+
+        @Override
+        public void startDataset(DicomInputStream in) throws IOException {
+            dis.startDataset(in);
+        }
+
+        @Override
+        public void endDataset(DicomInputStream in) throws IOException {
+            dis.endDataset(in);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package edu.jh.pm.tic.dicom;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.util.TagUtils;
+
+/**
+ * Resolves map keys to tags and tags back to keys, caching both directions.
+ * Keys are a keyword, 0xGGGGEEEE, GGGGEEEE, GGGG,EEEE (any separator), or "Private Creator (gggg,eeee)".
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+final class TagNames {
+    private static final String UNKNOWN = "Unknown";
+    // Names come from payloads and received data, so the caches stop growing at this size
+    private static final int MAX_CACHED = 10000;
+    private static final ConcurrentHashMap<String, Name> BY_NAME = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, String> PUBLIC_NAMES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Name, String> PRIVATE_NAMES = new ConcurrentHashMap<>();
+
+    private TagNames() { }
+
+    /**
+     * A tag and, for private tags named with their creator, the Private Creator
+     */
+    static final class Name {
+        private final String privateCreator;
+        private final int tag;
+
+        Name(String privateCreator, int tag) {
+            this.privateCreator = privateCreator;
+            this.tag = tag;
+        }
+
+        String getPrivateCreator() { return privateCreator; }
+        int getTag() { return tag; }
+
+        @Override
+        public int hashCode() { return tag * 31 + Objects.hashCode(privateCreator); }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Name)) return false;
+            Name n = (Name)o;
+            return tag == n.tag && Objects.equals(privateCreator, n.privateCreator);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException The name isn't a tag or a known keyword
+     */
+    static Name parse(String name) {
+        Name cached = BY_NAME.get(name);
+        if (cached != null) return cached;
+        Name parsed = parseUncached(name);
+        if (BY_NAME.size() < MAX_CACHED) BY_NAME.putIfAbsent(name, parsed);
+        return parsed;
+    }
+
+    static int tagOf(String name) {
+        return parse(name).getTag();
+    }
+
+    /**
+     * The key attributesToMap uses: the keyword of a public tag or "Private Creator (gggg,eeee)"
+     */
+    static String nameOf(String privateCreator, int tag) {
+        if (privateCreator == null) {
+            String name = PUBLIC_NAMES.get(tag);
+            if (name == null) {
+                name = ElementDictionary.keywordOf(tag, null);
+                if (name == null || name.isEmpty()) name = UNKNOWN;
+                if (PUBLIC_NAMES.size() < MAX_CACHED) PUBLIC_NAMES.putIfAbsent(tag, name);
+            }
+            return name;
+        }
+        Name key = new Name(privateCreator, tag);
+        String name = PRIVATE_NAMES.get(key);
+        if (name == null) {
+            StringBuilder sb = new StringBuilder(privateCreator.length() + 12).append(privateCreator).append(" (");
+            appendHex4(sb, tag >>> 16);
+            sb.append(',');
+            appendHex4(sb, tag & 0xFFFF);
+            name = sb.append(')').toString();
+            if (PRIVATE_NAMES.size() < MAX_CACHED) PRIVATE_NAMES.putIfAbsent(key, name);
+        }
+        return name;
+    }
+
+    private static Name parseUncached(String name) {
+        int len = name.length();
+        if (len == 10 && name.charAt(0) == '0' && (name.charAt(1) == 'x' || name.charAt(1) == 'X') && isHex(name, 2, 10)) {
+            return new Name(null, parseHex(name, 2, 10));
+        }
+        if (len > 0 && isDigits(name)) {
+            // Plain digits are hexadecimal too, like 00100020
+            if (len > 8) throw new IllegalArgumentException(name);
+            return new Name(null, parseHex(name, 0, len));
+        }
+        if (len == 9 && isHex(name, 0, 4) && !isWordChar(name.charAt(4)) && isHex(name, 5, 9)) {
+            return new Name(null, (parseHex(name, 0, 4) << 16) | parseHex(name, 5, 9));
+        }
+        // Private Creator (gggg,eeee), the form attributesToMap produces
+        if (len > 12 && name.charAt(len - 1) == ')' && name.charAt(len - 11) == '(' && name.charAt(len - 12) == ' '
+                && isHex(name, len - 10, len - 6) && name.charAt(len - 6) == ',' && isHex(name, len - 5, len - 1)) {
+            int tag = (parseHex(name, len - 10, len - 6) << 16) | parseHex(name, len - 5, len - 1);
+            if (TagUtils.isPrivateTag(tag)) return new Name(name.substring(0, len - 12), tag);
+        }
+        int tag = ElementDictionary.tagForKeyword(name, (String)null);
+        if (tag == -1) throw new IllegalArgumentException(name);
+        return new Name(null, tag);
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static boolean isHex(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (hexDigit(s.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    private static int parseHex(String s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = hexDigit(s.charAt(i));
+            if (digit < 0) throw new IllegalArgumentException(s);
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static void appendHex4(StringBuilder sb, int value) {
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            sb.append(Character.forDigit((value >>> shift) & 0xF, 16));
+        }
+    }
+}
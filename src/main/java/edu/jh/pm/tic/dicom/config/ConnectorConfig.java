@@ -9,6 +9,8 @@ import org.mule.api.annotations.Required;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
 
+import edu.jh.pm.tic.dicom.models.Durability;
+
 /**
  * Copyright (c) 2022 The Johns Hopkins University
  * All rights reserved
@@ -171,4 +173,351 @@ public class ConnectorConfig {
     private int socketCloseDelay;
     public int getSocketCloseDelay() { return socketCloseDelay; }
     public void setSocketCloseDelay(int socketCloseDelay) { this.socketCloseDelay = socketCloseDelay; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCU Pool")
+    @FriendlyName("Max Pooled Associations")
+    @Summary("Max open Store SCU associations per remote AE. Default is 0 (pooling disabled)")
+    @Optional
+    @Default("0")
+    private int storePoolMaxPerRemote;
+    public int getStorePoolMaxPerRemote() { return storePoolMaxPerRemote; }
+    public void setStorePoolMaxPerRemote(int storePoolMaxPerRemote) { this.storePoolMaxPerRemote = storePoolMaxPerRemote; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCU Pool")
+    @FriendlyName("Pool Idle Timeout")
+    @Summary("Milliseconds an idle association stays open. Default is 60000")
+    @Optional
+    @Default("60000")
+    private int storePoolIdleTimeout;
+    public int getStorePoolIdleTimeout() { return storePoolIdleTimeout; }
+    public void setStorePoolIdleTimeout(int storePoolIdleTimeout) { this.storePoolIdleTimeout = storePoolIdleTimeout; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCU Pool")
+    @FriendlyName("Pool Max Wait")
+    @Summary("Milliseconds to wait for a free association. Default is 30000 (0 is infinite)")
+    @Optional
+    @Default("30000")
+    private int storePoolMaxWait;
+    public int getStorePoolMaxWait() { return storePoolMaxWait; }
+    public void setStorePoolMaxWait(int storePoolMaxWait) { this.storePoolMaxWait = storePoolMaxWait; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCU Pool")
+    @FriendlyName("Validate Pooled Associations")
+    @Summary("Send a C-ECHO before reusing an idle association")
+    @Optional
+    @Default("false")
+    private boolean storePoolValidate;
+    public boolean getStorePoolValidate() { return storePoolValidate; }
+    public void setStorePoolValidate(boolean storePoolValidate) { this.storePoolValidate = storePoolValidate; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "SCU Threads")
+    @FriendlyName("SCU Core Threads")
+    @Summary("Threads kept alive for SCU associations. Default is 4")
+    @Optional
+    @Default("4")
+    private int scuCoreThreads;
+    public int getScuCoreThreads() { return scuCoreThreads; }
+    public void setScuCoreThreads(int scuCoreThreads) { this.scuCoreThreads = scuCoreThreads; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "SCU Threads")
+    @FriendlyName("SCU Max Threads")
+    @Summary("Max threads shared by all SCU associations, one per open association, including pooled, streaming, async and parallel ones. Once all are busy a new association waits for SCU Thread Wait, then fails with an IOException. Default is 256")
+    @Optional
+    @Default("256")
+    private int scuMaxThreads;
+    public int getScuMaxThreads() { return scuMaxThreads; }
+    public void setScuMaxThreads(int scuMaxThreads) { this.scuMaxThreads = scuMaxThreads; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "SCU Threads")
+    @FriendlyName("SCU Thread Wait")
+    @Summary("Milliseconds a new SCU association waits for a thread once SCU Max Threads are busy. Default is 30000")
+    @Optional
+    @Default("30000")
+    private int scuThreadWait;
+    public int getScuThreadWait() { return scuThreadWait; }
+    public void setScuThreadWait(int scuThreadWait) { this.scuThreadWait = scuThreadWait; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "SCU Threads")
+    @FriendlyName("SCU Scheduler Threads")
+    @Summary("Threads for timeouts and cancellations. Default is 1")
+    @Optional
+    @Default("1")
+    private int scuScheduledThreads;
+    public int getScuScheduledThreads() { return scuScheduledThreads; }
+    public void setScuScheduledThreads(int scuScheduledThreads) { this.scuScheduledThreads = scuScheduledThreads; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCP Spooling")
+    @Summary("Received instances larger than this many bytes are spooled to disk and their bulk data passed as URIs. Default is 0 (never spool)")
+    @Optional
+    @Default("0")
+    private int spoolThreshold;
+    public int getSpoolThreshold() { return spoolThreshold; }
+    public void setSpoolThreshold(int spoolThreshold) { this.spoolThreshold = spoolThreshold; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCP Spooling")
+    @Summary("Folder for spool files. Defaults to the temporary directory")
+    @Optional
+    private String spoolDirectory;
+    public String getSpoolDirectory() { return spoolDirectory; }
+    public void setSpoolDirectory(String spoolDirectory) { this.spoolDirectory = spoolDirectory; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCP Spooling")
+    @Summary("Delete each spool file after the flow has processed it")
+    @Optional
+    @Default("true")
+    private boolean deleteSpoolFiles;
+    public boolean getDeleteSpoolFiles() { return deleteSpoolFiles; }
+    public void setDeleteSpoolFiles(boolean deleteSpoolFiles) { this.deleteSpoolFiles = deleteSpoolFiles; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCP Admission")
+    @FriendlyName("Store SCP Core Threads")
+    @Summary("Threads kept alive for received associations. Default is 8")
+    @Optional
+    @Default("8")
+    private int scpCoreThreads;
+    public int getScpCoreThreads() { return scpCoreThreads; }
+    public void setScpCoreThreads(int scpCoreThreads) { this.scpCoreThreads = scpCoreThreads; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCP Admission")
+    @FriendlyName("Store SCP Max Threads")
+    @Summary("Max threads for received associations, one per open association. The accept loop has a thread of its own on top. Default is 128")
+    @Optional
+    @Default("128")
+    private int scpMaxThreads;
+    public int getScpMaxThreads() { return scpMaxThreads; }
+    public void setScpMaxThreads(int scpMaxThreads) { this.scpMaxThreads = scpMaxThreads; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCP Admission")
+    @FriendlyName("Store SCP Queue Size")
+    @Summary("Associations waiting for a thread before connections stop being accepted. Default is 0 (hand off directly)")
+    @Optional
+    @Default("0")
+    private int scpQueueSize;
+    public int getScpQueueSize() { return scpQueueSize; }
+    public void setScpQueueSize(int scpQueueSize) { this.scpQueueSize = scpQueueSize; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCP Admission")
+    @Summary("Max concurrent associations, others are rejected as transient. Default is 0 (unlimited)")
+    @Optional
+    @Default("0")
+    private int maxAssociations;
+    public int getMaxAssociations() { return maxAssociations; }
+    public void setMaxAssociations(int maxAssociations) { this.maxAssociations = maxAssociations; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Store SCP Admission")
+    @FriendlyName("Max In-Flight MB")
+    @Summary("Max megabytes received and not yet processed. Past it new instances wait to be read and new associations are rejected as transient. Default is 0 (unlimited)")
+    @Optional
+    @Default("0")
+    private int maxInFlightMegabytes;
+    public int getMaxInFlightMegabytes() { return maxInFlightMegabytes; }
+    public void setMaxInFlightMegabytes(int maxInFlightMegabytes) { this.maxInFlightMegabytes = maxInFlightMegabytes; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Memory Budget")
+    @FriendlyName("Memory Budget MB")
+    @Summary("Max megabytes of received instances held in memory across the connector. Past it the Store SCP spools instances to disk and C-GET reads wait. Default is 0 (unlimited)")
+    @Optional
+    @Default("0")
+    private int memoryBudgetMegabytes;
+    public int getMemoryBudgetMegabytes() { return memoryBudgetMegabytes; }
+    public void setMemoryBudgetMegabytes(int memoryBudgetMegabytes) { this.memoryBudgetMegabytes = memoryBudgetMegabytes; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "File Writing")
+    @FriendlyName("Write-Behind Threads")
+    @Summary("I/O threads that write C-GET files so sub-operations are acknowledged before the disk write. Default is 0 (write on the association's thread)")
+    @Optional
+    @Default("0")
+    private int writeBehindThreads;
+    public int getWriteBehindThreads() { return writeBehindThreads; }
+    public void setWriteBehindThreads(int writeBehindThreads) { this.writeBehindThreads = writeBehindThreads; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "File Writing")
+    @FriendlyName("Write-Behind Queue MB")
+    @Summary("Max megabytes copied and waiting to be written. Past it C-GET reads wait. Default is 64")
+    @Optional
+    @Default("64")
+    private int writeBehindQueueMegabytes;
+    public int getWriteBehindQueueMegabytes() { return writeBehindQueueMegabytes; }
+    public void setWriteBehindQueueMegabytes(int writeBehindQueueMegabytes) { this.writeBehindQueueMegabytes = writeBehindQueueMegabytes; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "File Writing")
+    @Summary("When saved files are synced to disk: FILE after each file, BATCH once a C-GET finishes, or NONE (the default)")
+    @Optional
+    @Default("NONE")
+    private Durability durability;
+    public Durability getDurability() { return durability; }
+    public void setDurability(Durability durability) { this.durability = durability; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Find Cache")
+    @FriendlyName("Find Cache TTL")
+    @Summary("Milliseconds successful Find SCU results are reused for the same remote and keys. Default is 0 (no cache)")
+    @Optional
+    @Default("0")
+    private int findCacheTtl;
+    public int getFindCacheTtl() { return findCacheTtl; }
+    public void setFindCacheTtl(int findCacheTtl) { this.findCacheTtl = findCacheTtl; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Find Cache")
+    @FriendlyName("Find Cache Max Entries")
+    @Summary("Queries kept in the cache, least recently used are evicted first. Default is 1000")
+    @Optional
+    @Default("1000")
+    private int findCacheMaxEntries;
+    public int getFindCacheMaxEntries() { return findCacheMaxEntries; }
+    public void setFindCacheMaxEntries(int findCacheMaxEntries) { this.findCacheMaxEntries = findCacheMaxEntries; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Find Cache")
+    @FriendlyName("Coalesce Identical Finds")
+    @Summary("Callers that send the same Find SCU query while it's in flight wait for its result instead of sending another C-FIND")
+    @Optional
+    @Default("false")
+    private boolean coalesceFinds;
+    public boolean getCoalesceFinds() { return coalesceFinds; }
+    public void setCoalesceFinds(boolean coalesceFinds) { this.coalesceFinds = coalesceFinds; }
+
+    @Configurable
+    @Placement(tab = "General", group = "Tag Projection")
+    @Summary("Comma separated tags kept in received instances, Find SCU results and Read File. Blank keeps all")
+    @Optional
+    private String includeTags;
+    public String getIncludeTags() { return includeTags; }
+    public void setIncludeTags(String includeTags) { this.includeTags = includeTags; }
+
+    @Configurable
+    @Placement(tab = "General", group = "Tag Projection")
+    @Summary("Comma separated tags dropped from received instances, Find SCU results and Read File")
+    @Optional
+    private String excludeTags;
+    public String getExcludeTags() { return excludeTags; }
+    public void setExcludeTags(String excludeTags) { this.excludeTags = excludeTags; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Read Files")
+    @FriendlyName("Read Files Parallelism")
+    @Summary("Files Read Files parses at once. 0 uses one per processor")
+    @Optional
+    @Default("0")
+    private int readFilesParallelism;
+    public int getReadFilesParallelism() { return readFilesParallelism; }
+    public void setReadFilesParallelism(int readFilesParallelism) { this.readFilesParallelism = readFilesParallelism; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Metrics")
+    @FriendlyName("Enable Metrics")
+    @Summary("Records latency histograms and counters for each remote AE and registers them as JMX MBeans")
+    @Optional
+    @Default("false")
+    private boolean metricsEnabled;
+    public boolean getMetricsEnabled() { return metricsEnabled; }
+    public void setMetricsEnabled(boolean metricsEnabled) { this.metricsEnabled = metricsEnabled; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Tracing")
+    @FriendlyName("Trace Sample Percent")
+    @Summary("Percent of associations whose phase timeline is traced, 0 turns tracing off")
+    @Optional
+    @Default("0")
+    private int traceSamplePercent;
+    public int getTraceSamplePercent() { return traceSamplePercent; }
+    public void setTraceSamplePercent(int traceSamplePercent) { this.traceSamplePercent = traceSamplePercent; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Tracing")
+    @FriendlyName("Trace Buffer Size")
+    @Summary("Completed association traces kept in memory for Trace Dump")
+    @Optional
+    @Default("256")
+    private int traceBufferSize;
+    public int getTraceBufferSize() { return traceBufferSize; }
+    public void setTraceBufferSize(int traceBufferSize) { this.traceBufferSize = traceBufferSize; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Tracing")
+    @FriendlyName("Trace Directory")
+    @Summary("Directory of the rolling dicom-trace.log file, empty keeps traces in memory only")
+    @Optional
+    private String traceDirectory;
+    public String getTraceDirectory() { return traceDirectory; }
+    public void setTraceDirectory(String traceDirectory) { this.traceDirectory = traceDirectory; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Tracing")
+    @FriendlyName("Trace File Size (MB)")
+    @Summary("Size at which the trace file rolls over")
+    @Optional
+    @Default("10")
+    private int traceFileMegabytes;
+    public int getTraceFileMegabytes() { return traceFileMegabytes; }
+    public void setTraceFileMegabytes(int traceFileMegabytes) { this.traceFileMegabytes = traceFileMegabytes; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Tracing")
+    @FriendlyName("Trace Files")
+    @Summary("Rolled trace files kept besides the current one")
+    @Optional
+    @Default("5")
+    private int traceFiles;
+    public int getTraceFiles() { return traceFiles; }
+    public void setTraceFiles(int traceFiles) { this.traceFiles = traceFiles; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Async Retrieves")
+    @FriendlyName("Async Retrieve Retention")
+    @Summary("Seconds a finished Move SCU Async or Get SCU Async can still be looked up by Retrieve Status")
+    @Optional
+    @Default("3600")
+    private int asyncRetrieveRetention;
+    public int getAsyncRetrieveRetention() { return asyncRetrieveRetention; }
+    public void setAsyncRetrieveRetention(int asyncRetrieveRetention) { this.asyncRetrieveRetention = asyncRetrieveRetention; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Parallel Retrieves")
+    @FriendlyName("Parallel Retrieve Associations")
+    @Summary("Concurrent associations of a parallel Move SCU or Get SCU, unless the remote AE has a limit")
+    @Optional
+    @Default("4")
+    private int parallelRetrieveDefault;
+    public int getParallelRetrieveDefault() { return parallelRetrieveDefault; }
+    public void setParallelRetrieveDefault(int parallelRetrieveDefault) { this.parallelRetrieveDefault = parallelRetrieveDefault; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Parallel Retrieves")
+    @FriendlyName("Parallel Retrieve Limits")
+    @Summary("Concurrent associations for specific remote AEs, as comma separated AET=count pairs like PACS=8,OUTSIDE=2")
+    @Optional
+    private String parallelRetrieveLimits;
+    public String getParallelRetrieveLimits() { return parallelRetrieveLimits; }
+    public void setParallelRetrieveLimits(String parallelRetrieveLimits) { this.parallelRetrieveLimits = parallelRetrieveLimits; }
+
+    @Configurable
+    @Placement(tab = "Performance", group = "Parallel Retrieves")
+    @FriendlyName("Retrieve Journal Directory")
+    @Summary("Directory of the journals of resumable retrieves, empty uses dicom-retrieve-journals in the temporary directory")
+    @Optional
+    private String retrieveJournalDirectory;
+    public String getRetrieveJournalDirectory() { return retrieveJournalDirectory; }
+    public void setRetrieveJournalDirectory(String retrieveJournalDirectory) { this.retrieveJournalDirectory = retrieveJournalDirectory; }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package edu.jh.pm.tic.dicom.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of a connector, broken down by remote Application Entity. Each remote is registered as an
+ * MBean named edu.jh.pm.tic.dicom:type=RemoteAE,connector=&lt;AE Title&gt;,remote=&lt;remote AE Title&gt;
+ * the first time it's seen.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public class ConnectorMetrics {
+    private static final Logger log = LoggerFactory.getLogger(ConnectorMetrics.class);
+    public static final String DOMAIN = "edu.jh.pm.tic.dicom";
+    private static final String UNKNOWN = "UNKNOWN";
+    private final String connectorAet;
+    private final ConcurrentHashMap<String, RemoteMetrics> remotes = new ConcurrentHashMap<>();
+    private final Map<String, ObjectName> registered = new ConcurrentHashMap<>();
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    public ConnectorMetrics(String connectorAet) {
+        this.connectorAet = connectorAet;
+    }
+
+    /**
+     * Metrics of a remote, created and registered with JMX on first use
+     */
+    public RemoteMetrics forRemote(String remoteAet) {
+        String key = remoteAet == null || remoteAet.isEmpty() ? UNKNOWN : remoteAet;
+        RemoteMetrics metrics = remotes.get(key);
+        if (metrics != null) return metrics;
+        return remotes.computeIfAbsent(key, this::register);
+    }
+
+    private RemoteMetrics register(String remoteAet) {
+        RemoteMetrics metrics = new RemoteMetrics(remoteAet);
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=RemoteAE,connector=" + ObjectName.quote(String.valueOf(connectorAet))
+                    + ",remote=" + ObjectName.quote(remoteAet));
+            server.registerMBean(metrics, name);
+            registered.put(remoteAet, name);
+        } catch (JMException e) {
+            // Still recorded, and available through the Metrics processor
+            log.warn("Unable to register metrics for {} with JMX: {}", remoteAet, e.getMessage());
+        }
+        return metrics;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        for (Map.Entry<String, RemoteMetrics> entry : remotes.entrySet()) stats.put(entry.getKey(), entry.getValue().getStatistics());
+        return stats;
+    }
+
+    public void reset() {
+        for (RemoteMetrics metrics : remotes.values()) metrics.reset();
+    }
+
+    /**
+     * Unregisters every MBean
+     */
+    public void close() {
+        for (ObjectName name : registered.values()) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.debug("Unable to unregister {}: {}", name, e.getMessage());
+            }
+        }
+        registered.clear();
+        remotes.clear();
+    }
+}
@@ -0,0 +1,16 @@
+package edu.jh.pm.tic.dicom.metrics;
+
+/**
+ * What a latency histogram times. ASSOCIATE covers the TCP connect and A-ASSOCIATE negotiation,
+ * RELEASE runs until the association is closed, the DIMSE operations run from the request until
+ * the final response, and STORE_RECEIVED is the time a received instance spends in its store or flow.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public enum Operation {
+	ASSOCIATE, RELEASE, C_STORE, C_FIND, C_MOVE, C_GET, STORE_RECEIVED
+}
@@ -0,0 +1,145 @@
+package edu.jh.pm.tic.dicom.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dcm4che3.net.Status;
+
+/**
+ * Latencies and counters for one remote Application Entity. Recording doesn't allocate, so it's
+ * cheap enough for every PDU-carrying operation.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public final class RemoteMetrics implements RemoteMetricsMXBean {
+    private static final Operation[] OPERATIONS = Operation.values();
+    // Distinct failure statuses tracked, a remote seldom sends more than a handful
+    private static final int STATUS_SLOTS = 64;
+    private final String remoteAet;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder instancesReceived = new LongAdder();
+    private final LongAdder associationFailures = new LongAdder();
+    // Open addressed table of status to count, 0 is an empty slot since Success isn't a failure
+    private final AtomicIntegerArray statuses = new AtomicIntegerArray(STATUS_SLOTS);
+    private final AtomicLongArray statusCounts = new AtomicLongArray(STATUS_SLOTS);
+    private final LongAdder otherFailures = new LongAdder();
+    private final LongAdder noResponse = new LongAdder();
+
+    RemoteMetrics(String remoteAet) {
+        this.remoteAet = remoteAet;
+        for (int i = 0; i < latencies.length; i++) latencies[i] = new LatencyHistogram();
+    }
+
+    public void record(Operation operation, long nanos) {
+        latencies[operation.ordinal()].record(nanos);
+    }
+
+    public void addBytesIn(long bytes) { bytesIn.add(bytes); }
+    public void addBytesOut(long bytes) { bytesOut.add(bytes); }
+    public void instanceReceived() { instancesReceived.increment(); }
+    public void associationFailed() { associationFailures.increment(); }
+
+    /**
+     * Counts a final response status when it's neither a success nor a warning.
+     * @param status -1 when the association closed before the response
+     */
+    public void recordStatus(int status) {
+        if (status < 0) {
+            noResponse.increment();
+            return;
+        }
+        if (status == Status.Success || Status.isPending(status) || (status & 0xF000) == 0xB000) return;
+        int slot = (status * 31) & (STATUS_SLOTS - 1);
+        for (int probe = 0; probe < STATUS_SLOTS; probe++) {
+            int key = statuses.get(slot);
+            if (key == status || (key == 0 && (statuses.compareAndSet(slot, 0, status) || statuses.get(slot) == status))) {
+                statusCounts.incrementAndGet(slot);
+                return;
+            }
+            slot = (slot + 1) & (STATUS_SLOTS - 1);
+        }
+        otherFailures.increment();
+    }
+
+    @Override
+    public String getRemoteAet() { return remoteAet; }
+    @Override
+    public long getBytesIn() { return bytesIn.sum(); }
+    @Override
+    public long getBytesOut() { return bytesOut.sum(); }
+    @Override
+    public long getInstancesReceived() { return instancesReceived.sum(); }
+    @Override
+    public long getAssociationFailures() { return associationFailures.sum(); }
+
+    @Override
+    public Map<String, Long> getFailuresByStatus() {
+        Map<String, Long> failures = new HashMap<>();
+        for (int i = 0; i < STATUS_SLOTS; i++) {
+            int status = statuses.get(i);
+            long count = statusCounts.get(i);
+            if (status != 0 && count > 0) failures.put(String.format("%04X", status), count);
+        }
+        if (otherFailures.sum() > 0) failures.put("Other", otherFailures.sum());
+        if (noResponse.sum() > 0) failures.put("NoResponse", noResponse.sum());
+        return failures;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> snapshots = new HashMap<>();
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            if (histogram.getCount() > 0) snapshots.put(operation.name(), LatencySnapshot.of(histogram));
+        }
+        return snapshots;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) histogram.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        instancesReceived.reset();
+        associationFailures.reset();
+        for (int i = 0; i < STATUS_SLOTS; i++) statusCounts.set(i, 0);
+        otherFailures.reset();
+        noResponse.reset();
+    }
+
+    /**
+     * Same figures as the MBean, for the Metrics processor
+     */
+    Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("BytesIn", getBytesIn());
+        stats.put("BytesOut", getBytesOut());
+        stats.put("InstancesReceived", getInstancesReceived());
+        stats.put("AssociationFailures", getAssociationFailures());
+        stats.put("FailuresByStatus", getFailuresByStatus());
+        Map<String, Object> latencyStats = new HashMap<>();
+        for (Map.Entry<String, LatencySnapshot> entry : getLatencies().entrySet()) {
+            LatencySnapshot snapshot = entry.getValue();
+            Map<String, Object> values = new HashMap<>();
+            values.put("Count", snapshot.getCount());
+            values.put("MeanMillis", snapshot.getMeanMillis());
+            values.put("P50Millis", snapshot.getP50Millis());
+            values.put("P90Millis", snapshot.getP90Millis());
+            values.put("P99Millis", snapshot.getP99Millis());
+            values.put("P999Millis", snapshot.getP999Millis());
+            values.put("MaxMillis", snapshot.getMaxMillis());
+            latencyStats.put(entry.getKey(), values);
+        }
+        stats.put("Latencies", latencyStats);
+        return stats;
+    }
+}
@@ -0,0 +1,25 @@
+package edu.jh.pm.tic.dicom.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics for one remote Application Entity
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public interface RemoteMetricsMXBean {
+    String getRemoteAet();
+    long getBytesIn();
+    long getBytesOut();
+    long getInstancesReceived();
+    long getAssociationFailures();
+    /** Failed and canceled responses by status, e.g. A700 */
+    Map<String, Long> getFailuresByStatus();
+    /** Latency of each {@link Operation} */
+    Map<String, LatencySnapshot> getLatencies();
+    void reset();
+}
@@ -0,0 +1,15 @@
+package edu.jh.pm.tic.dicom.models;
+
+/**
+ * When saved files are forced to disk. FILE syncs each file before it's reported as saved,
+ * BATCH syncs every file of a C-GET once it has finished, and NONE leaves it to the operating system.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public enum Durability {
+	FILE, BATCH, NONE
+}
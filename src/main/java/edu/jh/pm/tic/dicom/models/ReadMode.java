@@ -0,0 +1,15 @@
+package edu.jh.pm.tic.dicom.models;
+
+/**
+ * How Read File parses a file. FULL reads every tag with bulk data as URIs, HEADER stops before PixelData
+ * or a chosen tag, MAPPED reads a memory-mapped file, and LAZY_BULK also returns a PixelData handle that reads frames on demand.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public enum ReadMode {
+	FULL, HEADER, MAPPED, LAZY_BULK
+}
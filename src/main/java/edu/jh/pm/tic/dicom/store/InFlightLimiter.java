@@ -0,0 +1,108 @@
+package edu.jh.pm.tic.dicom.store;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts bytes received that haven't been processed yet.
+ * Readers either block while the limit is reached, which stops reading PDUs and lets TCP push back on senders,
+ * or use {@link #tryAcquire(int)} and spill to disk.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public class InFlightLimiter {
+    private static final Logger log = LoggerFactory.getLogger(InFlightLimiter.class);
+    // A holder that never releases, such as a stuck flow, would block readers forever, so a wait gives up after this
+    private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private final long limit;
+    private long used = 0;
+    private long peak = 0;
+    private long spills = 0;
+
+    /**
+     * @param limit Max bytes in flight, 0 is unlimited
+     */
+    public InFlightLimiter(long limit) {
+        this.limit = limit;
+    }
+
+    public long getLimit() { return limit; }
+    public synchronized long getUsed() { return used; }
+
+    public synchronized boolean isExhausted() {
+        return limit > 0 && used >= limit;
+    }
+
+    /**
+     * Accounts for bytes about to be queued, waiting while they don't fit. Only for bytes that are released
+     * independently of the caller, such as queued writes, since the caller can't release any while it waits.
+     */
+    public synchronized void acquire(int bytes) throws InterruptedException {
+        if (limit > 0 && used > 0 && used + bytes > limit) await(bytes);
+        add(bytes);
+    }
+
+    /**
+     * Accounts for bytes of an instance being read. Only the instance's first read waits, until the limit
+     * isn't reached. Later reads are counted straight away, since waiting for room while holding the
+     * instance's own bytes could only end in a timeout. An admitted instance may go past the limit.
+     *
+     * @param held Bytes of this instance already accounted
+     */
+    public synchronized void acquire(int bytes, long held) throws InterruptedException {
+        if (held == 0 && limit > 0 && used >= limit) await(0);
+        add(bytes);
+    }
+
+    private void await(int bytes) throws InterruptedException {
+        long remaining = MAX_WAIT_NANOS;
+        while (used > 0 && used + Math.max(1, bytes) > limit && remaining > 0) {
+            long start = System.nanoTime();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining -= System.nanoTime() - start;
+        }
+        if (used > 0 && used + Math.max(1, bytes) > limit) log.debug("In-flight limit of {} bytes exceeded, {} in use", limit, used);
+    }
+
+    /**
+     * Accounts for bytes only if they fit within the limit
+     * @return false if the caller should spill to disk instead of holding the bytes
+     */
+    public synchronized boolean tryAcquire(int bytes) {
+        if (limit > 0 && used + bytes > limit) return false;
+        add(bytes);
+        return true;
+    }
+
+    public synchronized void recordSpill() {
+        spills++;
+    }
+
+    private void add(int bytes) {
+        used += bytes;
+        if (used > peak) peak = used;
+    }
+
+    public synchronized void release(long bytes) {
+        if (bytes <= 0) return;
+        used = Math.max(0, used - bytes);
+        notifyAll();
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("Limit", limit);
+        stats.put("Used", used);
+        stats.put("Peak", peak);
+        stats.put("Spills", spills);
+        return stats;
+    }
+}
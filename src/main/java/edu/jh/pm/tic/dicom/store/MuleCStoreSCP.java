@@ -1,6 +1,7 @@
 package edu.jh.pm.tic.dicom.store;
 
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -15,6 +16,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.jh.pm.tic.dicom.AttribUtils;
+import edu.jh.pm.tic.dicom.metrics.ConnectorMetrics;
+import edu.jh.pm.tic.dicom.metrics.Operation;
+import edu.jh.pm.tic.dicom.metrics.RemoteMetrics;
+import edu.jh.pm.tic.dicom.trace.AssociationTrace;
+import edu.jh.pm.tic.dicom.trace.Phase;
 
 /**
  * Copyright (c) 2022 The Johns Hopkins University
@@ -25,31 +31,89 @@ import edu.jh.pm.tic.dicom.AttribUtils;
  */
 public class MuleCStoreSCP extends BasicCStoreSCP {
     private static final Logger log = LoggerFactory.getLogger(MuleCStoreSCP.class);
+    /** Association property holding the MuleStore when the SCP is shared across associations */
+    public static final String STORE_PROPERTY = MuleStore.class.getName();
     private final MuleStore store;
+    private final InFlightLimiter limiter;
+    private final ConnectorMetrics metrics;
+    private volatile Consumer<String> storedListener = null;
 
 	public MuleCStoreSCP(MuleStore store) {
+        this(store, null);
+    }
+
+    /**
+     * @param limiter Accounts the bytes of each instance until the store has processed it, may be null
+     */
+    public MuleCStoreSCP(MuleStore store, InFlightLimiter limiter) {
+        this(store, limiter, null);
+    }
+
+    /**
+     * @param metrics Counts instances and bytes received from each remote AE, may be null
+     */
+    public MuleCStoreSCP(MuleStore store, InFlightLimiter limiter, ConnectorMetrics metrics) {
         super();
         this.store = store;
+        this.limiter = limiter;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Called with the SOP Instance UID of every instance the store processed successfully, may be null
+     */
+    public void setStoredListener(Consumer<String> storedListener) { this.storedListener = storedListener; }
+
+    /**
+     * Creates an SCP that stores to the MuleStore set on each association's {@link #STORE_PROPERTY}
+     */
+    public MuleCStoreSCP() {
+        this(null);
     }
 	
     @Override
     protected void store(Association as, PresentationContext pc,
                          Attributes rq, PDVInputStream data, Attributes rsp) {
         int status = -1;
+        RemoteMetrics remote = metrics != null ? metrics.forRemote(as.getRemoteAET()) : null;
+        AssociationTrace trace = AssociationTrace.of(as);
+        int msgId = rq.getInt(Tag.MessageID, 0);
+        ThrottledPDVInputStream throttled = limiter != null || remote != null || trace != null ? new ThrottledPDVInputStream(data, limiter) : null;
+        if (trace != null) {
+            // The command and first PDV have arrived by the time the service is called
+            trace.add(Phase.FIRST_PDV, msgId, rq.getString(Tag.AffectedSOPInstanceUID));
+            throttled.setOnEnd(() -> trace.add(Phase.LAST_PDV, msgId, null));
+        }
+        long started = System.nanoTime();
         try {
         	Map<String,Object> inboundProperties = AttribUtils.attributesToMap(rq);
         	inboundProperties.put("TransferSyntaxUID", pc.getTransferSyntax());
         	inboundProperties.put("ImplementationClassUID", as.getRemoteImplClassUID());
         	inboundProperties.put("ImplementationVersionName", as.getRemoteImplVersionName());
         	inboundProperties.put("SourceApplicationEntityTitle", as.getRemoteAET());
-        	Object result = store.process(data, inboundProperties);
+        	MuleStore target = store != null ? store : (MuleStore)as.getProperty(STORE_PROPERTY);
+        	if (target == null) throw new IllegalStateException("No store registered for this association");
+        	Object result = target.process(throttled != null ? throttled : data, inboundProperties);
             log.debug("{}: M-WRITE {}", as, result);
             status = Status.Success;
+            Consumer<String> listener = storedListener;
+            if (listener != null) listener.accept(rq.getString(Tag.AffectedSOPInstanceUID));
         } catch (Exception e) {
             log.error(as.toString() + ": M-WRITE " + e.getMessage(), e);
             status = Status.ProcessingFailure;
+        } finally {
+            if (limiter != null) limiter.release(throttled.getAcquired());
+            if (remote != null) {
+                remote.record(Operation.STORE_RECEIVED, System.nanoTime() - started);
+                remote.addBytesIn(throttled.getCount());
+                remote.instanceReceived();
+                remote.recordStatus(status);
+            }
+            if (trace != null) trace.add(Phase.PROCESSED, msgId, null);
         }
         rsp.setInt(Tag.Status, VR.US, status);
+        // The response is sent as soon as this returns
+        if (trace != null) trace.add(Phase.RESPONSE, msgId, Integer.toHexString(status));
     }
 
     public DicomServiceRegistry createServiceRegistry() {
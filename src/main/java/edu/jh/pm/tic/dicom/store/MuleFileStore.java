@@ -1,19 +1,21 @@
 package edu.jh.pm.tic.dicom.store;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.PDVInputStream;
 
 import edu.jh.pm.tic.dicom.StoreUtils;
+import edu.jh.pm.tic.dicom.models.Durability;
 
 /**
  * Copyright (c) 2022 The Johns Hopkins University
@@ -26,13 +28,51 @@ public class MuleFileStore implements MuleStore {
 	private final String outputFilePath;
 	private final Notification notification;
 	private final List<String> fileList;
+	private final Durability durability;
+	private final WriteBehindWriter.Batch batch;
+	// SOP Instance UID of each file waiting to be saved, only kept while there's a stored listener
+	private final Map<String, String> pendingUids = new ConcurrentHashMap<>();
+	private volatile Consumer<String> storedListener = null;
 	public List<String> getFileList() { return fileList; }
+
+	/**
+	 * Called with the SOP Instance UID of each instance once its file is saved, just before the Notification. May be null.
+	 */
+	public void setStoredListener(Consumer<String> storedListener) { this.storedListener = storedListener; }
 	
 	public MuleFileStore(String outputFilePath, Notification notification) throws IOException {
+		this(outputFilePath, notification, null, Durability.NONE);
+	}
+
+	/**
+	 * @param writer Writes files on its own threads, null writes them on the association's thread.
+	 *        Its queued buffers count against the memory budget, files written directly stream to disk and don't.
+	 * @param durability When files are forced to disk. Notification.saved is only called after that.
+	 */
+	public MuleFileStore(String outputFilePath, Notification notification, WriteBehindWriter writer, Durability durability) throws IOException {
+		this(outputFilePath, notification, writer, durability, true);
+	}
+
+	/**
+	 * @param clear Delete the folder's contents first. A resumed C-GET keeps the files already saved.
+	 */
+	public MuleFileStore(String outputFilePath, Notification notification, WriteBehindWriter writer, Durability durability, boolean clear) throws IOException {
 		this.outputFilePath = outputFilePath;
 		this.notification = notification;
-		fileList = new ArrayList<>();
-		StoreUtils.deleteFolder(this.outputFilePath);
+		this.durability = durability != null ? durability : Durability.NONE;
+		this.batch = writer != null ? writer.newBatch(this.durability, new Notification() {
+			@Override
+			public void saved(String fileName) {
+				MuleFileStore.this.saved(fileName);
+			}
+
+			@Override
+			public void finished() {
+				if (notification != null) notification.finished();
+			}
+		}) : null;
+		fileList = Collections.synchronizedList(new ArrayList<>());
+		if (clear) StoreUtils.deleteFolder(this.outputFilePath);
 		Path dir = Paths.get(this.outputFilePath);
 		Files.createDirectories(dir);
 	}
@@ -41,20 +81,46 @@ public class MuleFileStore implements MuleStore {
 	public Object process(PDVInputStream payload, Map<String, Object> inboundProperties) throws Exception {
     	// Setup tags and preface
     	String iuid = (String)inboundProperties.getOrDefault("AffectedSOPInstanceUID", null);
-    	String cuid = (String)inboundProperties.getOrDefault("AffectedSOPClassUID", null);
-    	String tsuid = (String)inboundProperties.getOrDefault("TransferSyntaxUID", null);
-    	String icuid = (String)inboundProperties.getOrDefault("ImplementationClassUID", null);
-    	String ivn = (String)inboundProperties.getOrDefault("ImplementationVersionName", null);
-    	String aet = (String)inboundProperties.getOrDefault("SourceApplicationEntityTitle", null);
-    	Attributes fmi = StoreUtils.createFileMetaInformation(iuid, cuid, tsuid, icuid, ivn, aet);
-
-    	// Save to the file
+    	Attributes fmi = StoreUtils.createFileMetaInformation(inboundProperties);
 		Path file = Paths.get(outputFilePath, iuid + ".dcm");
-    	try (OutputStream output = Files.newOutputStream(file, StandardOpenOption.CREATE)) {
-        	StoreUtils.writeTo(output, payload, fmi);
-    	}
+		if (storedListener != null && iuid != null) pendingUids.put(file.toString(), iuid);
+
+		if (batch != null) {
+			// Queued bytes count against the memory budget, so the writer does the accounting
+			batch.write(file, fmi, payload);
+			fileList.add(file.toString());
+			return file.toString();
+		}
+
+    	// Save to the file. It streams straight to disk, so it isn't counted against the memory budget.
+    	StoreUtils.writeTo(file, fmi, payload, 0);
+    	if (durability == Durability.FILE) StoreUtils.sync(file);
     	fileList.add(file.toString());
-    	if (notification != null) notification.saved(file.toString());
+    	if (durability != Durability.BATCH) saved(file.toString());
     	return file.toString();
 	}
+
+	private void saved(String fileName) {
+		String iuid = pendingUids.remove(fileName);
+		Consumer<String> listener = storedListener;
+		if (listener != null && iuid != null) listener.accept(iuid);
+		if (notification != null) notification.saved(fileName);
+	}
+
+	/**
+	 * Waits for files still being written and syncs them for BATCH durability. Call once the C-GET is done.
+	 * @throws IOException A file could not be written, even though its C-STORE was acknowledged
+	 */
+	public void finish() throws IOException, InterruptedException {
+		if (batch != null) {
+			batch.finish();
+		} else if (durability == Durability.BATCH) {
+			List<String> files;
+			synchronized (fileList) {
+				files = new ArrayList<>(fileList);
+			}
+			for (String file : files) StoreUtils.sync(Paths.get(file));
+			for (String file : files) saved(file);
+		}
+	}
 }
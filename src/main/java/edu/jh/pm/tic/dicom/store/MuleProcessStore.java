@@ -1,10 +1,25 @@
 package edu.jh.pm.tic.dicom.store;
 
-//import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.net.PDVInputStream;
 import org.mule.api.callback.SourceCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jh.pm.tic.dicom.StoreUtils;
+import edu.jh.pm.tic.dicom.TagFilter;
 
 /**
  * Copyright (c) 2022 The Johns Hopkins University
@@ -14,16 +29,132 @@ import org.mule.api.callback.SourceCallback;
  *
  */
 public class MuleProcessStore implements MuleStore {
+	private static final Logger log = LoggerFactory.getLogger(MuleProcessStore.class);
+	public static final String SPOOL_FILE = "SpoolFile";
 	private final SourceCallback callback;
+	private final int spoolThreshold;
+	private final Path spoolDirectory;
+	private final boolean deleteSpoolFiles;
+	private final InFlightLimiter memoryBudget;
+	private final TagFilter tagFilter;
 
 	public MuleProcessStore(SourceCallback callback) {
+		this(callback, 0, null, true, null, null);
+	}
+
+	/**
+	 * @param callback Flow that receives each instance
+	 * @param spoolThreshold Instances larger than this many bytes are spooled to disk, and their bulk data
+	 *        is passed as BulkData URIs into the spool file. 0 keeps every instance in memory unless over the memory budget.
+	 * @param spoolDirectory Where spool files are created. Defaults to the temporary directory.
+	 * @param deleteSpoolFiles Delete the spool file once the flow has processed the instance
+	 * @param memoryBudget Connector-wide budget for instances held in memory, instances that don't fit are spooled. May be null.
+	 * @param tagFilter Tags kept in each instance passed to the flow, null keeps all
+	 */
+	public MuleProcessStore(SourceCallback callback, int spoolThreshold, String spoolDirectory, boolean deleteSpoolFiles, InFlightLimiter memoryBudget, TagFilter tagFilter) {
 		this.callback = callback;
+		this.tagFilter = tagFilter;
+		this.memoryBudget = memoryBudget;
+		this.spoolThreshold = spoolThreshold;
+		this.spoolDirectory = (spoolDirectory == null || spoolDirectory.isEmpty()) ? null : Paths.get(spoolDirectory);
+		this.deleteSpoolFiles = deleteSpoolFiles;
 	}
-	
+
 	@Override
 	public Object process(PDVInputStream payload, Map<String, Object> inboundProperties) throws Exception {
 		String tsuid = (String)inboundProperties.get("TransferSyntaxUID");
-		return callback.process(payload.readDataset(tsuid), inboundProperties);
+		if (spoolThreshold <= 0 && memoryBudget == null) {
+			if (tagFilter == null) return callback.process(payload.readDataset(tsuid), inboundProperties);
+			// Not closed, the association owns the stream
+			@SuppressWarnings("resource")
+			DicomInputStream dis = new DicomInputStream(payload, tsuid);
+			Attributes data = tagFilter.read(dis);
+			// Reading may stop early, the rest isn't needed
+			payload.skipAll();
+			return callback.process(data, inboundProperties);
+		}
+
+		// Buffer up to the threshold, small instances never touch the disk
+		long threshold = spoolThreshold > 0 ? spoolThreshold : Long.MAX_VALUE;
+		SpoolBuffer buffer = new SpoolBuffer((int)Math.min(threshold, 65536));
+		byte[] chunk = new byte[8192];
+		int read = 0;
+		long reserved = 0;
+		boolean spill = false;
+		try {
+			while (buffer.size() <= threshold && (read = payload.read(chunk)) > 0) {
+				buffer.write(chunk, 0, read);
+				if (memoryBudget != null) {
+					if (!memoryBudget.tryAcquire(read)) {
+						// Over the memory budget, so this instance goes to disk
+						memoryBudget.recordSpill();
+						spill = true;
+						break;
+					}
+					reserved += read;
+				}
+			}
+			if (!spill && (read < 0 || buffer.size() <= threshold)) {
+				try (DicomInputStream dis = new DicomInputStream(buffer.toInputStream(), tsuid)) {
+					return callback.process(readDataset(dis), inboundProperties);
+				}
+			}
+
+			Path file = spool(buffer, payload, inboundProperties);
+			buffer = null;
+			if (memoryBudget != null) {
+				memoryBudget.release(reserved);
+				reserved = 0;
+			}
+			try {
+				Attributes data;
+				try (DicomInputStream dis = new DicomInputStream(file.toFile())) {
+					dis.setIncludeBulkData(IncludeBulkData.URI);
+					data = readDataset(dis);
+				}
+				inboundProperties.put(SPOOL_FILE, file.toString());
+				return callback.process(data, inboundProperties);
+			} finally {
+				if (deleteSpoolFiles) {
+					try {
+						Files.deleteIfExists(file);
+					} catch (IOException e) {
+						log.warn("Unable to delete spool file {}: {}", file, e.getMessage());
+					}
+				}
+			}
+		} finally {
+			if (memoryBudget != null) memoryBudget.release(reserved);
+		}
 	}
 
+	private Attributes readDataset(DicomInputStream dis) throws IOException {
+		return tagFilter != null ? tagFilter.read(dis) : dis.readDataset();
+	}
+
+	/**
+	 * Writes the buffered bytes and the rest of the stream to a DICOM file
+	 */
+	private Path spool(SpoolBuffer buffer, PDVInputStream payload, Map<String, Object> inboundProperties) throws IOException {
+		Path file = spoolDirectory == null
+				? Files.createTempFile("dicom", ".dcm")
+				: Files.createTempFile(Files.createDirectories(spoolDirectory), "dicom", ".dcm");
+		Attributes fmi = StoreUtils.createFileMetaInformation(inboundProperties);
+		try {
+			StoreUtils.writeTo(file, fmi, new SequenceInputStream(buffer.toInputStream(), payload), 0);
+		} catch (IOException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+		log.debug("Spooled {} to {}", fmi.getString(Tag.MediaStorageSOPInstanceUID), file);
+		return file;
+	}
+
+	/**
+	 * Exposes the buffer without copying it
+	 */
+	private static final class SpoolBuffer extends ByteArrayOutputStream {
+		SpoolBuffer(int size) { super(size); }
+		ByteArrayInputStream toInputStream() { return new ByteArrayInputStream(buf, 0, count); }
+	}
 }
@@ -9,7 +9,8 @@ package edu.jh.pm.tic.dicom.store;
  */
 public interface Notification {
 	/***
-	 * Called after every E-GET file is saved
+	 * Called after every E-GET file is saved, and synced when Durability is FILE or BATCH.
+	 * With write-behind it's called from an I/O thread, one file at a time.
 	 */
 	public void saved(String fileName);
 	/***
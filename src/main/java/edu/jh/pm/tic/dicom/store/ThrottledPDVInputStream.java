@@ -0,0 +1,131 @@
+package edu.jh.pm.tic.dicom.store;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.PDVInputStream;
+
+/**
+ * Accounts every byte read from a received C-STORE with an InFlightLimiter. The first read waits while
+ * the limit is reached, so each instance is admitted once and then read to its end.
+ * Without a limiter it only counts the bytes, and it can report when the last PDV has been read.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+class ThrottledPDVInputStream extends PDVInputStream {
+    private static final int COPY_BUFFER_SIZE = 8192;
+    private final PDVInputStream in;
+    private final InFlightLimiter limiter;
+    private long acquired = 0;
+    private long count = 0;
+    private Runnable onEnd = null;
+
+    ThrottledPDVInputStream(PDVInputStream in, InFlightLimiter limiter) {
+        this.in = in;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Bytes accounted so far, to be released once the instance is processed
+     */
+    long getAcquired() { return acquired; }
+
+    /**
+     * Bytes read or skipped so far
+     */
+    long getCount() { return count; }
+
+    /**
+     * Runs once when the end of the dataset is read or the rest is skipped
+     */
+    void setOnEnd(Runnable onEnd) { this.onEnd = onEnd; }
+
+    private void ended() {
+        Runnable run = onEnd;
+        if (run == null) return;
+        onEnd = null;
+        run.run();
+    }
+
+    private void account(int bytes) throws IOException {
+        if (bytes < 0) ended();
+        if (bytes <= 0) return;
+        count += bytes;
+        if (limiter == null) return;
+        try {
+            limiter.acquire(bytes, acquired);
+            acquired += bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        account(b >= 0 ? 1 : -1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        account(read);
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    @Override
+    public Attributes readDataset(String tsuid) throws IOException {
+        // Not closed, the association owns the underlying stream
+        @SuppressWarnings("resource")
+        DicomInputStream dis = new DicomInputStream(this, tsuid);
+        return dis.readDataset();
+    }
+
+    @Override
+    public void copyTo(OutputStream out, int length) throws IOException {
+        byte[] buffer = new byte[Math.min(length, COPY_BUFFER_SIZE)];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = read(buffer, 0, Math.min(remaining, buffer.length));
+            if (read < 0) throw new IOException("Unexpected end of PDV stream, " + remaining + " bytes missing");
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    @Override
+    public void copyTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int read;
+        while ((read = read(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    @Override
+    public long skipAll() throws IOException {
+        long skipped = in.skipAll();
+        count += skipped;
+        ended();
+        return skipped;
+    }
+}
@@ -0,0 +1,307 @@
+package edu.jh.pm.tic.dicom.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jh.pm.tic.dicom.StoreUtils;
+import edu.jh.pm.tic.dicom.models.Durability;
+
+/**
+ * Writes received instances on a dedicated I/O thread pool, so C-STORE sub-operations are acknowledged
+ * as soon as their data is copied into pooled buffers. Buffers are queued as they fill and released once
+ * written. Queued bytes are limited, once the limit is reached copying waits for writes to catch up.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public class WriteBehindWriter {
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindWriter.class);
+    private static final int CHUNK_SIZE = 65536;
+    private final ThreadPoolExecutor executor;
+    private final InFlightLimiter queued;
+    private final InFlightLimiter memoryBudget;
+    private final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int maxPooled;
+
+    /**
+     * @param threads I/O threads
+     * @param maxQueuedBytes Bytes copied and not yet written, 0 is unlimited
+     * @param memoryBudget Connector-wide budget the queued bytes also count against, may be null
+     */
+    public WriteBehindWriter(int threads, long maxQueuedBytes, InFlightLimiter memoryBudget) {
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "dicom-write-behind-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.queued = new InFlightLimiter(maxQueuedBytes);
+        this.memoryBudget = memoryBudget;
+        this.maxPooled = maxQueuedBytes > 0 ? (int)Math.max(1, maxQueuedBytes / CHUNK_SIZE) : 1024;
+    }
+
+    /**
+     * Starts a group of writes that finish together, such as the files of one C-GET
+     */
+    public Batch newBatch(Durability durability, Notification notification) {
+        return new Batch(durability, notification);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) log.warn("Write-behind writes still running after 30 seconds");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.clear();
+    }
+
+    private byte[] acquireChunk() throws InterruptedException {
+        queued.acquire(CHUNK_SIZE);
+        if (memoryBudget != null) memoryBudget.acquire(CHUNK_SIZE);
+        byte[] chunk = pool.poll();
+        if (chunk == null) return new byte[CHUNK_SIZE];
+        pooled.decrementAndGet();
+        return chunk;
+    }
+
+    private void releaseChunk(byte[] chunk) {
+        if (pooled.incrementAndGet() <= maxPooled) pool.offer(chunk);
+        else pooled.decrementAndGet();
+        queued.release(CHUNK_SIZE);
+        if (memoryBudget != null) memoryBudget.release(CHUNK_SIZE);
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    public final class Batch {
+        private final Durability durability;
+        private final Notification notification;
+        private final List<Future<Path>> pending = new ArrayList<>();
+
+        private Batch(Durability durability, Notification notification) {
+            this.durability = durability != null ? durability : Durability.NONE;
+            this.notification = notification;
+        }
+
+        /**
+         * Copies the File Meta Information and the rest of the stream into pooled buffers, handing each
+         * to the I/O threads as it fills. Blocks only while the queue is full, and queued chunks are
+         * released as they're written, so an instance larger than the queue streams through it.
+         */
+        public void write(Path file, Attributes fmi, InputStream dataset) throws IOException {
+            FileJob job = new FileJob(file, StoreUtils.encodeFileMetaInformation(fmi));
+            synchronized (pending) {
+                pending.add(job.done);
+            }
+            try {
+                int read;
+                do {
+                    byte[] chunk = acquireChunk();
+                    try {
+                        read = readFully(dataset, chunk);
+                    } catch (IOException | RuntimeException e) {
+                        releaseChunk(chunk);
+                        throw e;
+                    }
+                    job.add(new Chunk(chunk, read, read < CHUNK_SIZE));
+                } while (read == CHUNK_SIZE);
+            } catch (InterruptedException e) {
+                job.abort();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                job.abort();
+                throw e;
+            }
+        }
+
+        /**
+         * Waits for every queued write, syncing them first for BATCH durability
+         * @throws IOException The first write that failed
+         */
+        public void finish() throws IOException, InterruptedException {
+            List<Future<Path>> futures;
+            synchronized (pending) {
+                futures = new ArrayList<>(pending);
+                pending.clear();
+            }
+            IOException failure = null;
+            List<Path> written = new ArrayList<>();
+            for (Future<Path> future : futures) {
+                try {
+                    Path file = future.get();
+                    if (file != null) written.add(file);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    log.warn("Write-behind write failed: {}", cause.toString());
+                    if (failure == null) failure = cause instanceof IOException ? (IOException)cause : new IOException(cause);
+                    else failure.addSuppressed(cause);
+                }
+            }
+            if (durability == Durability.BATCH) {
+                for (Path file : written) StoreUtils.sync(file);
+                for (Path file : written) saved(file);
+            }
+            if (failure != null) throw failure;
+        }
+
+        // Notifications are serialized, as they were when files were written on the association's thread
+        private void saved(Path file) {
+            if (notification == null) return;
+            synchronized (this) {
+                notification.saved(file.toString());
+            }
+        }
+
+        /**
+         * The chunks of one file, written in order by whichever I/O thread drains them.
+         * Completes with the file, or null when reading the instance failed and the partial file was removed.
+         */
+        private final class FileJob implements Runnable {
+            private final Path file;
+            private final byte[] header;
+            private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<>();
+            private final AtomicBoolean scheduled = new AtomicBoolean();
+            private final CompletableFuture<Path> done = new CompletableFuture<>();
+            // Only used by the draining thread
+            private FileChannel channel = null;
+            private IOException failure = null;
+
+            FileJob(Path file, byte[] header) {
+                this.file = file;
+                this.header = header;
+            }
+
+            void add(Chunk chunk) throws IOException {
+                chunks.add(chunk);
+                if (!scheduled.compareAndSet(false, true)) return;
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    for (Chunk c; (c = chunks.poll()) != null;) {
+                        if (c.data != null) releaseChunk(c.data);
+                    }
+                    done.completeExceptionally(new IOException("Write-behind writer is stopped", e));
+                    throw new IOException("Write-behind writer is stopped", e);
+                }
+            }
+
+            /**
+             * Stops the file after the chunks already queued, and removes it
+             */
+            void abort() {
+                try {
+                    add(new Chunk(null, 0, true));
+                } catch (IOException ignore) {
+                    // Already completed
+                }
+            }
+
+            @Override
+            public void run() {
+                do {
+                    for (Chunk chunk; (chunk = chunks.poll()) != null;) write(chunk);
+                    scheduled.set(false);
+                } while (!chunks.isEmpty() && scheduled.compareAndSet(false, true));
+            }
+
+            private void write(Chunk chunk) {
+                try {
+                    if (failure == null && chunk.data != null) {
+                        if (channel == null) {
+                            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                            writeFully(channel, ByteBuffer.wrap(header));
+                        }
+                        writeFully(channel, ByteBuffer.wrap(chunk.data, 0, chunk.length));
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    if (chunk.data != null) releaseChunk(chunk.data);
+                }
+                if (chunk.last) complete(chunk.data == null);
+            }
+
+            private void complete(boolean aborted) {
+                try {
+                    if (channel != null) {
+                        if (failure == null && !aborted && durability == Durability.FILE) channel.force(true);
+                        channel.close();
+                    }
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                }
+                if (aborted) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        log.warn("Unable to remove partial file {}: {}", file, e.toString());
+                    }
+                    done.complete(null);
+                } else if (failure != null) {
+                    done.completeExceptionally(failure);
+                } else {
+                    if (durability != Durability.BATCH) saved(file);
+                    done.complete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * A filled buffer, or with no data the end of a file whose instance couldn't be read
+     */
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        final boolean last;
+
+        Chunk(byte[] data, int length, boolean last) {
+            this.data = data;
+            this.length = length;
+            this.last = last;
+        }
+    }
+}
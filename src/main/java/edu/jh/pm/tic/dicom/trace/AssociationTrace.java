@@ -0,0 +1,156 @@
+package edu.jh.pm.tic.dicom.trace;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.DataWriter;
+import org.dcm4che3.net.pdu.AAssociateAC;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+
+/**
+ * Timeline of one association. Events are kept in parallel arrays and only the optional detail
+ * is an object, so recording is cheap. After MAX_EVENTS further events are counted but dropped.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public final class AssociationTrace {
+    /** Association property holding the trace, so services on the association can add to it */
+    public static final String TRACE_PROPERTY = AssociationTrace.class.getName();
+    private static final Phase[] PHASES = Phase.values();
+    private static final int MAX_EVENTS = 16384;
+    private final TraceRecorder recorder;
+    private final long id;
+    private final String role;
+    private final String localAet;
+    private final String remoteAet;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private long[] times = new long[64];
+    private byte[] phases = new byte[64];
+    private int[] messageIds = new int[64];
+    private Object[] details = new Object[64];
+    private int size = 0;
+    private int dropped = 0;
+    private boolean completed = false;
+
+    AssociationTrace(TraceRecorder recorder, long id, String role, String localAet, String remoteAet) {
+        this.recorder = recorder;
+        this.id = id;
+        this.role = role;
+        this.localAet = localAet;
+        this.remoteAet = remoteAet;
+    }
+
+    /**
+     * The trace attached to an association, or null when it isn't traced
+     */
+    public static AssociationTrace of(Association as) {
+        return as != null ? (AssociationTrace)as.getProperty(TRACE_PROPERTY) : null;
+    }
+
+    public void add(Phase phase) {
+        add(phase, 0, null);
+    }
+
+    /**
+     * @param messageId DIMSE message the event belongs to, 0 for association events
+     * @param detail Shown after the event, converted to a string only when the trace is written
+     */
+    public synchronized void add(Phase phase, int messageId, Object detail) {
+        if (size == times.length) {
+            if (size >= MAX_EVENTS) {
+                dropped++;
+                return;
+            }
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            phases = Arrays.copyOf(phases, capacity);
+            messageIds = Arrays.copyOf(messageIds, capacity);
+            details = Arrays.copyOf(details, capacity);
+        }
+        times[size] = System.nanoTime();
+        phases[size] = (byte)phase.ordinal();
+        messageIds[size] = messageId;
+        details[size] = detail;
+        size++;
+    }
+
+    /**
+     * Attaches the trace to an established association, recording its accepted presentation contexts
+     * and handing the trace to the recorder once it closes
+     */
+    public void attach(Association as) {
+        attach(as, as.getAAssociateRQ(), as.getAAssociateAC());
+    }
+
+    /**
+     * Attaches the trace to an association being negotiated, before the A-ASSOCIATE-AC is sent
+     */
+    public void attach(Association as, AAssociateRQ rq, AAssociateAC ac) {
+        as.setProperty(TRACE_PROPERTY, this);
+        as.addAssociationListener(a -> complete(null));
+        if (ac == null || rq == null) return;
+        for (PresentationContext pc : ac.getPresentationContexts()) {
+            if (!pc.isAccepted()) continue;
+            PresentationContext proposed = rq.getPresentationContext(pc.getPCID());
+            add(Phase.PRESENTATION_CONTEXT, pc.getPCID(), (proposed != null ? proposed.getAbstractSyntax() : "?") + " " + pc.getTransferSyntax());
+        }
+    }
+
+    /**
+     * Records CLOSED and hands the trace to the recorder, only the first call counts. Attached traces
+     * complete when their association closes, call this for one that never got an association.
+     */
+    public void complete(Object detail) {
+        synchronized (this) {
+            if (completed) return;
+            completed = true;
+        }
+        add(Phase.CLOSED, 0, detail);
+        recorder.complete(this);
+    }
+
+    /**
+     * Records FIRST_PDV and LAST_PDV around writing a C-STORE dataset
+     */
+    public DataWriter wrap(DataWriter writer, int messageId) {
+        return (out, tsuid) -> {
+            add(Phase.FIRST_PDV, messageId, null);
+            try {
+                writer.writeTo(out, tsuid);
+            } finally {
+                add(Phase.LAST_PDV, messageId, null);
+            }
+        };
+    }
+
+    public long getId() { return id; }
+    public String getRemoteAet() { return remoteAet; }
+
+    /**
+     * One line for the association, then one per event with milliseconds since the trace started
+     */
+    public synchronized String format() {
+        StringBuilder sb = new StringBuilder(64 + size * 48);
+        long end = size > 0 ? times[size - 1] : startNanos;
+        sb.append("Association ").append(id).append(' ').append(role).append(' ')
+          .append(localAet).append(" <-> ").append(remoteAet)
+          .append(" started ").append(Instant.ofEpochMilli(startMillis))
+          .append(String.format(" took %.3f ms", (end - startNanos) / 1e6));
+        if (dropped > 0) sb.append(", ").append(dropped).append(" events dropped");
+        sb.append('\n');
+        for (int i = 0; i < size; i++) {
+            sb.append(String.format("  %+12.3f ms %-20s", (times[i] - startNanos) / 1e6, PHASES[phases[i]]));
+            if (messageIds[i] != 0) sb.append(" msg ").append(messageIds[i]);
+            if (details[i] != null) sb.append(' ').append(details[i]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
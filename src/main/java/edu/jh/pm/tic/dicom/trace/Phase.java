@@ -0,0 +1,16 @@
+package edu.jh.pm.tic.dicom.trace;
+
+/**
+ * Events on an association's timeline. CONNECT to ASSOCIATE_AC covers the TCP connect and
+ * A-ASSOCIATE-RQ/AC, FIRST_PDV to LAST_PDV is a dataset on the wire, LAST_PDV to PROCESSED is
+ * the store or Mule flow, and RELEASE to CLOSED is the A-RELEASE.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public enum Phase {
+	CONNECT, ASSOCIATE_RQ, ASSOCIATE_AC, PRESENTATION_CONTEXT, REQUEST, FIRST_PDV, LAST_PDV, PROCESSED, RESPONSE, RELEASE, CLOSED
+}
@@ -0,0 +1,160 @@
+package edu.jh.pm.tic.dicom.trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples associations for tracing and keeps the most recent completed traces in a ring buffer.
+ * When a directory is set, completed traces are also appended to a rolling file by a single
+ * background thread, so association threads never wait on the disk.
+ *
+ * Copyright (c) 2022 The Johns Hopkins University
+ * All rights reserved
+ *
+ * @author David J. Talley, Technology Innovation Center, Precision Medicine Analytics Platform, Johns Hopkins Medicine
+ *
+ */
+public class TraceRecorder implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(TraceRecorder.class);
+    private static final String FILE_NAME = "dicom-trace";
+    private final double sampleRate;
+    private final AssociationTrace[] ring;
+    private final AtomicLong ids = new AtomicLong();
+    private int next = 0;
+    private long completed = 0;
+    private final Path directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final ExecutorService writer;
+
+    /**
+     * @param samplePercent Percent of associations traced, 0 to 100
+     * @param bufferSize Completed traces kept for dumping
+     * @param directory Where the rolling trace file is written, null or empty keeps traces in memory only
+     * @param maxFileBytes Size at which the trace file rolls over
+     * @param maxFiles Rolled files kept besides the current one
+     */
+    public TraceRecorder(int samplePercent, int bufferSize, String directory, long maxFileBytes, int maxFiles) {
+        this.sampleRate = Math.max(0, Math.min(100, samplePercent)) / 100.0;
+        this.ring = new AssociationTrace[Math.max(1, bufferSize)];
+        this.directory = (directory == null || directory.isEmpty()) ? null : Paths.get(directory);
+        this.maxFileBytes = Math.max(1, maxFileBytes);
+        this.maxFiles = Math.max(0, maxFiles);
+        this.writer = this.directory == null ? null : Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "dicom-trace-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts tracing an association if it's sampled
+     *
+     * @param role SCU operation or SCP
+     * @return The trace, or null when the association isn't sampled
+     */
+    public AssociationTrace start(String role, String localAet, String remoteAet) {
+        if (sampleRate <= 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) return null;
+        return new AssociationTrace(this, ids.incrementAndGet(), role, localAet, remoteAet);
+    }
+
+    void complete(AssociationTrace trace) {
+        synchronized (ring) {
+            ring[next] = trace;
+            next = (next + 1) % ring.length;
+            completed++;
+        }
+        if (writer != null) {
+            try {
+                writer.execute(() -> write(trace.format()));
+            } catch (RuntimeException e) {
+                // Closed, the trace is still in the ring buffer
+            }
+        }
+    }
+
+    /**
+     * Completed traces, oldest first
+     *
+     * @param remoteAet Only traces with this remote AE, null for all
+     * @param limit Most recent traces returned, 0 for all in the buffer
+     */
+    public List<String> dump(String remoteAet, int limit) {
+        List<AssociationTrace> traces = new ArrayList<>(ring.length);
+        synchronized (ring) {
+            for (int i = 0; i < ring.length; i++) {
+                AssociationTrace trace = ring[(next + i) % ring.length];
+                if (trace != null && (remoteAet == null || remoteAet.isEmpty() || remoteAet.equals(trace.getRemoteAet()))) traces.add(trace);
+            }
+        }
+        int from = limit > 0 ? Math.max(0, traces.size() - limit) : 0;
+        List<String> formatted = new ArrayList<>(traces.size() - from);
+        for (AssociationTrace trace : traces.subList(from, traces.size())) formatted.add(trace.format());
+        return formatted;
+    }
+
+    public long getCompleted() {
+        synchronized (ring) {
+            return completed;
+        }
+    }
+
+    private void write(String text) {
+        Path file = directory.resolve(FILE_NAME + ".log");
+        try {
+            Files.createDirectories(directory);
+            if (Files.exists(file) && Files.size(file) >= maxFileBytes) roll(file);
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(text);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to write trace to {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Shifts dicom-trace.N.log up by one, dropping the oldest
+     */
+    private void roll(Path file) throws IOException {
+        if (maxFiles == 0) {
+            Files.delete(file);
+            return;
+        }
+        Files.deleteIfExists(directory.resolve(FILE_NAME + "." + maxFiles + ".log"));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = directory.resolve(FILE_NAME + "." + i + ".log");
+            if (Files.exists(from)) Files.move(from, directory.resolve(FILE_NAME + "." + (i + 1) + ".log"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(file, directory.resolve(FILE_NAME + ".1.log"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes traces already completed, then stops the writer
+     */
+    @Override
+    public void close() {
+        if (writer == null) return;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}